@@ -58,4 +58,21 @@ public class Config {
     public String getValue(String key) {
         return configValues.get(key);
     }
+
+    public String getValue(String key, String defaultValue) {
+        String value = configValues.get(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public int getIntValue(String key, int defaultValue) {
+        String value = configValues.get(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new ConfigurationException(String.format("Config value %s is not a number: %s", key, value), ex);
+        }
+    }
 }
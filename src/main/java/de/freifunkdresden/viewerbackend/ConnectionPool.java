@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed size pool of JDBC connections. Idle connections are validated
+ * before they are handed out and replaced after their maximum lifetime. Each
+ * connection keeps an LRU cache of its prepared statements.
+ */
+class ConnectionPool {
+
+    private static final Logger LOGGER = LogManager.getLogger(ConnectionPool.class);
+    private static final long BORROW_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private static final long VALIDATION_INTERVAL = 500;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final long maxLifetime;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    ConnectionPool(String url, String username, String password, int size, long maxLifetime, int statementCacheSize) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxLifetime = maxLifetime;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(size, true);
+    }
+
+    PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLNonTransientConnectionException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timeout waiting for a database connection");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a database connection", ex);
+        }
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isUsable(pc)) {
+                    return pc;
+                }
+                pc.closeQuietly();
+            }
+            return new PooledConnection(DriverManager.getConnection(url, username, password));
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the connection to the pool, or closes it if it is broken, has
+     * reached its maximum lifetime or the pool was closed.
+     */
+    void release(PooledConnection pc, boolean broken) {
+        try {
+            if (broken || closed || pc.isExpired()) {
+                pc.closeQuietly();
+            } else {
+                pc.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            pc.closeQuietly();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        if (pc.isExpired()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pc.lastUsed < VALIDATION_INTERVAL) {
+            return true;
+        }
+        try {
+            return pc.connection.isValid(1);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the exception means the connection itself is unusable.
+     */
+    static boolean isConnectionError(SQLException ex) {
+        String state = ex.getSQLState();
+        return ex instanceof SQLNonTransientConnectionException
+                || ex instanceof SQLTransientConnectionException
+                || (state != null && state.startsWith("08"));
+    }
+
+    final class PooledConnection {
+
+        private final Connection connection;
+        private final long created = System.currentTimeMillis();
+        private long lastUsed = created;
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Returns the cached statement for the query, or prepares and caches a
+         * new one. Cached statements must not be closed by the caller.
+         */
+        PreparedStatement prepare(String query) throws SQLException {
+            PreparedStatement st = statements.get(query);
+            if (st == null || st.isClosed()) {
+                st = connection.prepareStatement(query);
+                statements.put(query, st);
+            } else {
+                st.clearParameters();
+            }
+            return st;
+        }
+
+        /**
+         * Drops the statement from the cache, e.g. after it failed.
+         */
+        void evict(String query) {
+            closeQuietly(statements.remove(query));
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - created > maxLifetime;
+        }
+
+        private void closeQuietly() {
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.DEBUG, "Failed to close connection", ex);
+            }
+        }
+
+        private void closeQuietly(PreparedStatement st) {
+            if (st != null) {
+                try {
+                    st.close();
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.DEBUG, "Failed to close statement", ex);
+                }
+            }
+        }
+    }
+}
@@ -25,7 +25,12 @@
 package de.freifunkdresden.viewerbackend;
 
 import de.freifunkdresden.viewerbackend.dataparser.DataParserDB;
+import de.freifunkdresden.viewerbackend.datasource.AirtimeSQL;
+import de.freifunkdresden.viewerbackend.datasource.AirtimeTable;
 import de.freifunkdresden.viewerbackend.datasource.FreifunkApi;
+import de.freifunkdresden.viewerbackend.datasource.NodeBatchWriter;
+import de.freifunkdresden.viewerbackend.datasource.ProbeSchedule;
+import de.freifunkdresden.viewerbackend.datasource.ResponseTimes;
 import de.freifunkdresden.viewerbackend.exception.JsonGenerationException;
 import de.freifunkdresden.viewerbackend.exception.NodeInfoCollectionException;
 import de.freifunkdresden.viewerbackend.exception.OfflineNodeProcessingException;
@@ -33,7 +38,9 @@ import de.freifunkdresden.viewerbackend.json.JsonFileGen;
 import de.freifunkdresden.viewerbackend.stats.GeneralStatType;
 import de.freifunkdresden.viewerbackend.stats.StatsSQL;
 import de.freifunkdresden.viewerbackend.thread.NodeDatabaseThread;
+import de.freifunkdresden.viewerbackend.thread.NodeSysinfoCrawler;
 import de.freifunkdresden.viewerbackend.thread.NodeSysinfoThread;
+import de.freifunkdresden.viewerbackend.thread.VirtualThreadExecutor;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,10 +52,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 public class DataGen {
 
@@ -57,7 +69,10 @@ public class DataGen {
     private static final ExecutorService POOL = Executors.newFixedThreadPool(10);
     private static final Config CONFIG = new Config();
     private static MySQL mysqlDb;
+    private static NodeBatchWriter dbWriter;
     private static Influx influxDb;
+    private static ResponseTimes responseTimes;
+    private static ProbeSchedule probeSchedule;
 
     public static MySQL getDB() {
         return mysqlDb;
@@ -75,13 +90,23 @@ public class DataGen {
         return CONFIG;
     }
 
+    public static ResponseTimes getResponseTimes() {
+        return responseTimes;
+    }
+
+    public static ProbeSchedule getProbeSchedule() {
+        return probeSchedule;
+    }
+
     public static void main(String[] args) {
         try {
             CONFIG.loadConfig();
             setupDatabase();
             processFreifunkApi();
             collectNodeInfo();
+            HOLDER.freeze();
             fillOfflineNodes();
+            HOLDER.getSnapshot().getNodes().forEach(Node::resolve);
             startDbSave();
             collectLinks();
             genJson();
@@ -102,43 +127,92 @@ public class DataGen {
     }
 
     private static void collectNodeInfo() throws NodeInfoCollectionException {
+        Path cache = Paths.get(CONFIG.getValue("cache_path"));
+        Path responseTimesFile = cache.resolve("response_times.json");
+        Path probeScheduleFile = cache.resolve("probe_schedule.json");
+        responseTimes = new ResponseTimes(CONFIG.getIntValue("crawl_connect_timeout", 10000),
+                CONFIG.getIntValue("crawl_read_timeout", 15000));
+        responseTimes.load(responseTimesFile);
+        probeSchedule = new ProbeSchedule(CONFIG.getIntValue("probe_max_interval", 8),
+                TimeUnit.MINUTES.toMillis(CONFIG.getIntValue("probe_recent_minutes", 30)));
+        probeSchedule.load(probeScheduleFile);
+        Map<Integer, Node> known = HOLDER.getNodes();
+        responseTimes.retain(known.keySet());
+        probeSchedule.retain(known.keySet());
+        Collection<Node> all = known.values();
+        List<Node> nodes = all.stream()
+                .filter(probeSchedule::shouldProbe)
+                .collect(Collectors.toList());
+        LOGGER.log(Level.INFO, "Probing {} nodes, {} skipped by backoff", nodes.size(), all.size() - nodes.size());
         try {
-            ExecutorService pool = Executors.newFixedThreadPool(10);
-            HOLDER.getNodes().values().forEach(n -> pool.submit(new NodeSysinfoThread(n)));
-            pool.shutdown();
-            LOGGER.log(Level.INFO, "Waiting threads to finish...");
-            pool.awaitTermination(2, TimeUnit.MINUTES);
+            CrawlMode mode = CrawlMode.getMode(CONFIG.getValue("crawl_mode"));
+            LOGGER.log(Level.INFO, "Collect node info ({})...", mode.name().toLowerCase());
+            switch (mode) {
+                case ASYNC:
+                    NodeSysinfoCrawler crawler = new NodeSysinfoCrawler(CONFIG.getIntValue("crawl_max_in_flight", 512));
+                    crawler.crawl(nodes, 2, TimeUnit.MINUTES);
+                    break;
+                case VIRTUAL:
+                    int maxInFlight = CONFIG.getIntValue("crawl_max_in_flight", 512);
+                    ExecutorService vt = VirtualThreadExecutor.newExecutor(maxInFlight);
+                    Semaphore permits = new Semaphore(maxInFlight);
+                    nodes.forEach(n -> vt.submit(new NodeSysinfoThread(n, permits)));
+                    vt.shutdown();
+                    LOGGER.log(Level.INFO, "Waiting threads to finish...");
+                    if (!vt.awaitTermination(2, TimeUnit.MINUTES)) {
+                        vt.shutdownNow();
+                    }
+                    break;
+                case POOL:
+                default:
+                    ExecutorService pool = Executors.newFixedThreadPool(10);
+                    nodes.forEach(n -> pool.submit(new NodeSysinfoThread(n)));
+                    pool.shutdown();
+                    LOGGER.log(Level.INFO, "Waiting threads to finish...");
+                    pool.awaitTermination(2, TimeUnit.MINUTES);
+                    break;
+            }
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new NodeInfoCollectionException(ex);
+        } finally {
+            responseTimes.save(responseTimesFile);
+            probeSchedule.save(probeScheduleFile);
         }
     }
 
     private static void collectLinks() {
         LOGGER.log(Level.INFO, "Collect links...");
-        HOLDER.getNodes().values().forEach(node -> node.getLinks().forEach(link -> {
-            Link lnk = HOLDER.getLink(link.getSource().getId(), link.getTarget().getId());
-            if (lnk == null) {
-                HOLDER.addLink(link);
-            } else {
-                lnk.setTargetTq(link.getSourceTq());
+        HOLDER.getSnapshot().getNodes().parallelStream().forEach(node -> {
+            NodeLinks links = node.getLinks();
+            for (int i = 0; i < links.size(); i++) {
+                HOLDER.mergeLink(node, links.getTarget(i), links.getType(i), links.getTq(i));
             }
-        }));
+        });
     }
 
     private static void fillOfflineNodes() throws OfflineNodeProcessingException {
         LOGGER.log(Level.INFO, "Fill offline nodes from database...");
-        String ids = HOLDER.getNodes().values().stream()
-                .map(n -> String.valueOf(n.getId()))
-                .collect(Collectors.joining(","));
-        if (ids.isEmpty()) {
+        List<Node> nodes = HOLDER.getSnapshot().getNodes();
+        if (nodes.isEmpty()) {
             return;
         }
-        try (ResultSet rs = mysqlDb.querySelect("SELECT * FROM nodes WHERE id IN (" + ids + ")")) {
-            while (rs.next()) {
-                DataParserDB dataParserDB = new DataParserDB();
-                dataParserDB.parse(rs);
-                HOLDER.getNode(rs.getInt("id")).setDpDatabase(dataParserDB);
+        AirtimeTable airtimes = AirtimeSQL.loadAirtimes(nodes);
+        int[] ids = nodes.stream().mapToInt(Node::getId).toArray();
+        String query = "SELECT * FROM nodes WHERE id IN (" + MySQL.placeholders(MySQL.IN_CHUNK_SIZE) + ")";
+        try {
+            for (int from = 0; from < ids.length; from += MySQL.IN_CHUNK_SIZE) {
+                try (ResultSet rs = mysqlDb.queryStream(query, MySQL.inParameters(ids, from))) {
+                    if (rs == null) {
+                        throw new OfflineNodeProcessingException("Nodes couldn't be read from database");
+                    }
+                    DataParserDB.Columns columns = DataParserDB.Columns.resolve(rs);
+                    while (rs.next()) {
+                        DataParserDB dataParserDB = new DataParserDB();
+                        dataParserDB.parse(rs, columns);
+                        HOLDER.getNode(rs.getInt(columns.getId())).setDpDatabase(dataParserDB, airtimes);
+                    }
+                }
             }
         } catch (SQLException ex) {
             throw new OfflineNodeProcessingException(ex);
@@ -152,10 +226,19 @@ public class DataGen {
             if (Files.notExists(dir)) {
                 Files.createDirectory(dir);
             }
-            JsonFileGen jfg = new JsonFileGen(dir, HOLDER.getNodes().values(), HOLDER.getLinks().values());
-            jfg.genNodes();
-            jfg.genGraph();
-            jfg.genMeshViewer();
+            JsonFileGen jfg = new JsonFileGen(dir, HOLDER.getSnapshot().getDisplayed(), HOLDER.getLinks());
+            if (Boolean.parseBoolean(CONFIG.getValue("json_gzip", "false"))) {
+                jfg.setGzipLevel(CONFIG.getIntValue("json_gzip_level", Deflater.BEST_COMPRESSION));
+            }
+            jfg.setSplitNodes(Boolean.parseBoolean(CONFIG.getValue("json_split_nodes", "false")));
+            jfg.setManifest(Boolean.parseBoolean(CONFIG.getValue("json_manifest", "false")));
+            Path cache = Paths.get(CONFIG.getValue("cache_path"));
+            jfg.setHashFile(cache.resolve("json_hashes.json"));
+            jfg.setFragmentCache(cache.resolve("json_fragments.bin"));
+            if (Boolean.parseBoolean(CONFIG.getValue("json_delta", "false"))) {
+                jfg.setDeltaFile(cache.resolve("json_delta.bin"));
+            }
+            jfg.genAll();
         } catch (IOException ex) {
             throw new JsonGenerationException(ex);
         }
@@ -163,10 +246,11 @@ public class DataGen {
 
     private static void startDbSave() {
         LOGGER.log(Level.INFO, "Start Save to database");
-        HOLDER.getNodes().values().stream()
-                .filter(Node::isOnline)
+        dbWriter = new NodeBatchWriter(mysqlDb, CONFIG.getIntValue("mysql_batch_size", 100),
+                CONFIG.getIntValue("mysql_batch_flush_interval", 1000));
+        HOLDER.getSnapshot().getOnline().stream()
                 .filter(Node::isDisplayed)
-                .forEach(node -> POOL.submit(new NodeDatabaseThread(node)));
+                .forEach(node -> POOL.submit(new NodeDatabaseThread(node, dbWriter)));
         POOL.shutdown();
     }
 
@@ -181,16 +265,16 @@ public class DataGen {
             Thread.currentThread().interrupt();
             LOGGER.log(Level.ERROR, "Execution Interrupted", ex);
         }
+        dbWriter.close();
     }
 
     private static void saveStats() {
         LOGGER.log(Level.INFO, "Save stats to database...");
-        HOLDER.getNodes().values().stream().filter(Node::isDisplayed)
-                .forEach(Node::collectStats);
-        StatsSQL.addGeneralStats(GeneralStatType.NODES, HOLDER.getNodes().values().stream().filter(Node::isDisplayed).count());
-        StatsSQL.addGeneralStats(GeneralStatType.NODES_ONLINE, HOLDER.getNodes().values().stream().filter(Node::isOnline).count());
-        StatsSQL.addGeneralStats(GeneralStatType.CLIENTS, HOLDER.getNodes().values().stream()
-                .filter(Node::isOnline)
+        NodeSnapshot snapshot = HOLDER.getSnapshot();
+        snapshot.getDisplayed().forEach(Node::collectStats);
+        StatsSQL.addGeneralStats(GeneralStatType.NODES, snapshot.getDisplayed().size());
+        StatsSQL.addGeneralStats(GeneralStatType.NODES_ONLINE, snapshot.getOnline().size());
+        StatsSQL.addGeneralStats(GeneralStatType.CLIENTS, snapshot.getOnline().stream()
                 .reduce(BigInteger.ZERO, (result, node) -> result.add(BigInteger.valueOf(node.getClients())), BigInteger::add)
                 .intValue());
         StatsSQL.processStats();
@@ -218,6 +302,7 @@ public class DataGen {
                 + " `clients` INT(4) NULL DEFAULT NULL, "
                 + " `gateway` INT(1) NULL DEFAULT NULL, "
                 + " `online` INT(1) NULL DEFAULT NULL, "
+                + " `autoupdate` INT(1) NULL DEFAULT NULL, "
                 + " `name` TEXT NULL, "
                 + " `email` TEXT NULL, "
                 + " PRIMARY KEY (`id`) "
@@ -24,46 +24,67 @@
 
 package de.freifunkdresden.viewerbackend;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class DataHolder {
 
-    private final Map<Integer, Node> nodes = new LinkedHashMap<>();
-    private final Map<Integer, Map<Integer, Link>> links = new HashMap<>();
+    //node ids are derived from 10.200.x.y, so they fit below 256 * 256
+    private static final int MAX_ID = 1 << 16;
+
+    private final AtomicReferenceArray<Node> nodes = new AtomicReferenceArray<>(MAX_ID);
+    private final Map<Integer, Node> otherNodes = new ConcurrentHashMap<>();
+    private final LinkIndex links = new LinkIndex();
+    private NodeSnapshot snapshot;
 
     public Node getNode(int id) {
-        Node n = nodes.getOrDefault(id, new Node(id));
-        if (!nodes.containsKey(id)) {
-            nodes.put(id, n);
+        if (id < 0 || id >= MAX_ID) {
+            return otherNodes.computeIfAbsent(id, Node::new);
+        }
+        Node n = nodes.get(id);
+        if (n == null) {
+            Node created = new Node(id);
+            n = nodes.compareAndExchange(id, null, created);
+            if (n == null) {
+                n = created;
+            }
         }
         return n;
     }
 
-    public Link getLink(int node1, int node2) {
-        int min = Math.min(node1, node2);
-        int max = Math.max(node1, node2);
-        if (!links.containsKey(min)) {
-            links.put(min, new HashMap<>());
-        }
-        return links.get(min).get(max);
+    public void mergeLink(Node source, int target, LinkType type, byte tq) {
+        links.merge(source, getNode(target), type, tq);
     }
 
-    public void addLink(Link l) {
-        int min = Math.min(l.getSource().getId(), l.getTarget().getId());
-        int max = Math.max(l.getSource().getId(), l.getTarget().getId());
-        if (!links.containsKey(min)) {
-            links.put(min, new HashMap<>());
-        }
-        links.get(min).put(max, l);
+    public synchronized NodeSnapshot freeze() {
+        snapshot = new NodeSnapshot(new ArrayList<>(getNodes().values()));
+        return snapshot;
+    }
+
+    public synchronized NodeSnapshot getSnapshot() {
+        return snapshot;
     }
 
     public Map<Integer, Node> getNodes() {
-        return new LinkedHashMap<>(nodes);
+        Map<Integer, Node> result = new LinkedHashMap<>();
+        TreeMap<Integer, Node> others = new TreeMap<>(otherNodes);
+        others.headMap(0).forEach(result::put);
+        for (int id = 0; id < MAX_ID; id++) {
+            Node n = nodes.get(id);
+            if (n != null) {
+                result.put(id, n);
+            }
+        }
+        others.tailMap(0).forEach(result::put);
+        return result;
     }
 
-    public Map<Integer, Map<Integer, Link>> getLinks() {
-        return new HashMap<>(links);
+    public List<Link> getLinks() {
+        return links.values();
     }
 }
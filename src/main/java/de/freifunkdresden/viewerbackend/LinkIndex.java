@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Links keyed by the packed node id pair {@code (min << 32) | max}, stored in
+ * lock striped open addressing tables.
+ */
+class LinkIndex {
+
+    private static final int SEGMENT_BITS = 6;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    LinkIndex() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    static long key(int node1, int node2) {
+        int min = Math.min(node1, node2);
+        int max = Math.max(node1, node2);
+        return ((long) min << 32) | (max & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds the link reported by {@code source}, or stores its tq as target tq
+     * of the already known link. The lower node id always ends up as source
+     * when both ends report the link and duplicate routes keep the best tq,
+     * independent of the merge order.
+     */
+    void merge(Node source, Node target, LinkType type, byte tq) {
+        long key = key(source.getId(), target.getId());
+        long hash = mix(key);
+        segment(hash).merge(key, hash, source, target, type, tq);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    List<Link> values() {
+        List<Link> result = new ArrayList<>(size());
+        for (Segment s : segments) {
+            s.addTo(result);
+        }
+        result.sort(Comparator.comparingLong(l -> key(l.getSource().getId(), l.getTarget().getId())));
+        return result;
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static final class Segment {
+
+        private long[] keys = new long[16];
+        private Link[] values = new Link[16];
+        private int size;
+
+        synchronized void merge(long key, long hash, Node source, Node target, LinkType type, byte tq) {
+            int slot = slot(key, hash);
+            Link existing = values[slot];
+            if (existing == null) {
+                keys[slot] = key;
+                values[slot] = new Link(type, tq, target, source);
+                if (++size * 2 > values.length) {
+                    resize();
+                }
+            } else if (existing.getSource() == source) {
+                //several routes of one node to the same target, keep the best one
+                if (tq > existing.getSourceTq()
+                        || (tq == existing.getSourceTq() && type.ordinal() < existing.getType().ordinal())) {
+                    Link link = new Link(type, tq, target, source);
+                    link.setTargetTq(existing.getTargetTq());
+                    values[slot] = link;
+                }
+            } else if (source.getId() < existing.getSource().getId()) {
+                Link link = new Link(type, tq, target, source);
+                link.setTargetTq(existing.getSourceTq());
+                values[slot] = link;
+            } else {
+                existing.setTargetTq((byte) Math.max(existing.getTargetTq(), tq));
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void addTo(List<Link> list) {
+            for (Link l : values) {
+                if (l != null) {
+                    list.add(l);
+                }
+            }
+        }
+
+        private int slot(long key, long hash) {
+            int mask = values.length - 1;
+            int slot = (int) hash & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Link[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Link[oldValues.length * 2];
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = slot(oldKeys[i], mix(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -29,24 +29,30 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class MySQL {
 
     private static final Logger LOGGER = LogManager.getLogger(MySQL.class);
+    private static final int STREAM_FETCH_SIZE = 1000;
+    public static final int IN_CHUNK_SIZE = 500;
 
     private final String host;
     private final short port;
     private final String username;
     private final String password;
     private final String database;
+    private final int poolSize;
+    private final long maxLifetime;
+    private final int statementCacheSize;
 
-    private Connection conn;
+    private ConnectionPool pool;
 
     public MySQL() {
         host = DataGen.getConfig().getValue("mysql_host");
@@ -54,109 +60,289 @@ public class MySQL {
         username = DataGen.getConfig().getValue("mysql_username");
         password = DataGen.getConfig().getValue("mysql_password");
         database = DataGen.getConfig().getValue("mysql_database");
+        poolSize = DataGen.getConfig().getIntValue("mysql_pool_size", 10);
+        maxLifetime = TimeUnit.MINUTES.toMillis(DataGen.getConfig().getIntValue("mysql_max_lifetime", 30));
+        statementCacheSize = DataGen.getConfig().getIntValue("mysql_statement_cache", 64);
     }
 
     public void openConnection() {
+        pool = new ConnectionPool("jdbc:mariadb://" + host + ":" + port + "/" + database
+                + "?rewriteBatchedStatements=true", username, password, poolSize, maxLifetime, statementCacheSize);
         try {
-            this.conn = DriverManager.getConnection("jdbc:mariadb://" + host + ":" + port + "/" + database, username, password);
+            pool.release(pool.borrow(), false);
         } catch (SQLException e) {
             throw new DatabaseConnectionException("No connection to database", e);
         }
     }
 
     public boolean hasConnection() {
+        if (pool == null) {
+            return false;
+        }
         try {
-            return this.conn != null && this.conn.isValid(1);
+            pool.release(pool.borrow(), false);
+            return true;
         } catch (SQLException e) {
             return false;
         }
     }
 
     public void queryUpdate(String query, Object... args) {
-        try (PreparedStatement st = conn.prepareStatement(query)) {
-            int i = 1;
-            for (Object o : args) {
-                st.setObject(i, o);
-                i++;
-            }
-            st.executeUpdate();
+        try {
+            update(query, args);
         } catch (SQLException e) {
             LOGGER.log(Level.ERROR, "Failed to send update: {} - {}", query, e.getLocalizedMessage());
         }
     }
 
-    public PreparedUpdate queryPrepUpdate(String query) {
-        try (PreparedStatement st = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            return new PreparedUpdate(st);
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, String.format("Failed to send update: %s", query), e);
-            return null;
+    /**
+     * Executes a single update, retrying once on a fresh connection if the
+     * pooled one turned out to be broken.
+     */
+    public int update(String query, Object... args) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            ConnectionPool.PooledConnection pc = pool.borrow();
+            boolean broken = false;
+            try {
+                PreparedStatement st = pc.prepare(query);
+                setParameters(st, args);
+                return st.executeUpdate();
+            } catch (SQLException e) {
+                broken = ConnectionPool.isConnectionError(e);
+                pc.evict(query);
+                if (!broken || attempt > 0) {
+                    throw e;
+                }
+            } finally {
+                pool.release(pc, broken);
+            }
         }
     }
 
-    public ResultSet querySelect(String query, Object... args) {
-        try (PreparedStatement st = conn.prepareStatement(query)) {
-            int i = 1;
-            for (Object o : args) {
-                st.setObject(i, o);
-                i++;
+    /**
+     * Executes the statement once per row as a JDBC batch on one connection.
+     */
+    public int[] updateBatch(String query, List<Object[]> rows) throws SQLException {
+        try (PreparedUpdate update = prepareUpdate(query)) {
+            for (Object[] row : rows) {
+                update.addBatch(row);
             }
-            return querySelect(st);
-        } catch (SQLException ex) {
-            LOGGER.log(Level.ERROR, "Error trying to build Prepared Statement", ex);
-            return null;
+            return update.executeBatch();
         }
     }
 
-    private ResultSet querySelect(PreparedStatement st) {
+    public PreparedUpdate queryPrepUpdate(String query) {
         try {
-            return st.executeQuery();
+            return prepareUpdate(query);
         } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, String.format("Failed to send SELECT query: %s", st.toString()), e);
+            LOGGER.log(Level.ERROR, String.format("Failed to send update: %s", query), e);
             return null;
         }
     }
 
-    public void closeConnection() {
+    /**
+     * Borrows a connection and its cached statement for the query. The
+     * connection is held until {@link PreparedUpdate#done()} is called.
+     */
+    public PreparedUpdate prepareUpdate(String query) throws SQLException {
+        ConnectionPool.PooledConnection pc = pool.borrow();
         try {
-            if (this.conn != null) {
-                this.conn.close();
-            }
+            return new PreparedUpdate(pc, query, pc.prepare(query));
         } catch (SQLException e) {
-        } finally {
-            this.conn = null;
+            pool.release(pc, ConnectionPool.isConnectionError(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the query on a pooled connection. The connection is held until the
+     * returned result set is closed.
+     */
+    public ResultSet querySelect(String query, Object... args) {
+        return select(0, query, args);
+    }
+
+    /**
+     * Like {@link #querySelect}, but rows are streamed from the server in
+     * batches instead of being buffered completely on the client.
+     */
+    public ResultSet queryStream(String query, Object... args) {
+        return select(STREAM_FETCH_SIZE, query, args);
+    }
+
+    private ResultSet select(int fetchSize, String query, Object... args) {
+        for (int attempt = 0; ; attempt++) {
+            ConnectionPool.PooledConnection pc = null;
+            try {
+                pc = pool.borrow();
+                PreparedStatement st = pc.prepare(query);
+                st.setFetchSize(fetchSize);
+                setParameters(st, args);
+                return wrap(pc, st.executeQuery());
+            } catch (SQLException e) {
+                boolean broken = ConnectionPool.isConnectionError(e);
+                if (pc != null) {
+                    pc.evict(query);
+                    pool.release(pc, broken);
+                }
+                if (!broken || attempt > 0) {
+                    LOGGER.log(Level.ERROR, String.format("Failed to send SELECT query: %s", query), e);
+                    return null;
+                }
+            }
+        }
+    }
+
+    public void closeConnection() {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+        this.pool = null;
+    }
+
+    /**
+     * @return "?,?,...,?" with count placeholders
+     */
+    public static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parameters for one {@link #IN_CHUNK_SIZE} sized IN list starting at
+     * {@code from}. The last chunk is padded with -1, which is no valid node
+     * id, so every chunk uses the same statement.
+     */
+    public static Object[] inParameters(int[] ids, int from) {
+        Object[] params = new Object[IN_CHUNK_SIZE];
+        for (int i = 0; i < IN_CHUNK_SIZE; i++) {
+            params[i] = from + i < ids.length ? ids[from + i] : -1;
         }
+        return params;
     }
 
-    public static class PreparedUpdate {
+    private static void setParameters(PreparedStatement st, Object... args) throws SQLException {
+        int i = 1;
+        for (Object o : args) {
+            st.setObject(i, o);
+            i++;
+        }
+    }
+
+    private ResultSet wrap(ConnectionPool.PooledConnection pc, ResultSet rs) {
+        ConnectionPool p = pool;
+        boolean[] state = new boolean[2]; // closed, broken
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                        if (!state[0]) {
+                            state[0] = true;
+                            try {
+                                rs.close();
+                            } finally {
+                                p.release(pc, state[1]);
+                            }
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(rs, args);
+                    } catch (InvocationTargetException ex) {
+                        if (ex.getCause() instanceof SQLException
+                                && ConnectionPool.isConnectionError((SQLException) ex.getCause())) {
+                            state[1] = true;
+                        }
+                        throw ex.getCause();
+                    }
+                });
+    }
 
+    /**
+     * Reusable update statement on a borrowed connection. Rows can be executed
+     * one by one with {@link #add} or collected with {@link #addBatch}.
+     */
+    public class PreparedUpdate implements AutoCloseable {
+
+        private final ConnectionPool.PooledConnection connection;
+        private final String query;
         private final PreparedStatement stmt;
+        private boolean broken;
+        private boolean failed;
+        private int pending;
 
-        public PreparedUpdate(PreparedStatement statement) {
+        private PreparedUpdate(ConnectionPool.PooledConnection connection, String query, PreparedStatement statement) {
+            this.connection = connection;
+            this.query = query;
             stmt = statement;
         }
 
         public PreparedUpdate add(Object... args) {
             try {
-                int i = 1;
-                for (Object o : args) {
-                    stmt.setObject(i, o);
-                    i++;
-                }
+                setParameters(stmt, args);
                 stmt.executeUpdate();
             } catch (SQLException ex) {
+                broken |= ConnectionPool.isConnectionError(ex);
+                failed = true;
                 LOGGER.log(Level.ERROR, "", ex);
             }
             return this;
         }
 
+        public PreparedUpdate addBatch(Object... args) throws SQLException {
+            try {
+                setParameters(stmt, args);
+                stmt.addBatch();
+            } catch (SQLException ex) {
+                pending = 0;
+                stmt.clearBatch();
+                throw ex;
+            }
+            pending++;
+            return this;
+        }
+
+        public int[] executeBatch() throws SQLException {
+            try {
+                return stmt.executeBatch();
+            } catch (SQLException ex) {
+                broken |= ConnectionPool.isConnectionError(ex);
+                failed = true;
+                throw ex;
+            } finally {
+                pending = 0;
+            }
+        }
+
+        /**
+         * Executes rows still in the batch and returns the connection.
+         */
         public void done() {
-            if (stmt != null) {
+            try {
+                if (pending > 0) {
+                    executeBatch();
+                }
+            } catch (SQLException ex) {
+                LOGGER.log(Level.ERROR, String.format("Failed to send update: %s", query), ex);
+            } finally {
                 try {
-                    stmt.close();
-                } catch (SQLException e) {
+                    stmt.clearBatch();
+                } catch (SQLException ex) {
+                    failed = true;
                 }
+                //a failed statement is dropped from the cache once it is no longer used
+                if (failed) {
+                    connection.evict(query);
+                }
+                pool.release(connection, broken);
             }
         }
+
+        @Override
+        public void close() {
+            done();
+        }
     }
 }
@@ -28,12 +28,10 @@ import de.freifunkdresden.viewerbackend.dataparser.DataParserAPI;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserDB;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfo;
 import de.freifunkdresden.viewerbackend.dataparser.TrafficInfo;
-import de.freifunkdresden.viewerbackend.datasource.AirtimeSQL;
+import de.freifunkdresden.viewerbackend.datasource.AirtimeTable;
+import de.freifunkdresden.viewerbackend.datasource.NodeBatchWriter;
 import de.freifunkdresden.viewerbackend.stats.StatsSQL;
 
-import java.util.Collection;
-import java.util.Collections;
-
 public class Node {
 
     private final int id;
@@ -41,6 +39,8 @@ public class Node {
     private DataParserDB dpDatabase;
     private DataParserSysinfo dpSysinfo;
 
+    private Resolved resolved;
+
     private Airtime airtime2GOld;
     private Airtime airtime5GOld;
 
@@ -60,10 +60,10 @@ public class Node {
         this.dpApi = dp;
     }
 
-    public void setDpDatabase(DataParserDB dp) {
+    public void setDpDatabase(DataParserDB dp, AirtimeTable airtimes) {
         this.dpDatabase = dp;
-        airtime2GOld = AirtimeSQL.getAirtime2G(this);
-        airtime5GOld = AirtimeSQL.getAirtime5G(this);
+        airtime2GOld = airtimes.get(id, 2);
+        airtime5GOld = airtimes.get(id, 5);
     }
 
     public void setDpSysinfo(DataParserSysinfo dp) {
@@ -79,20 +79,11 @@ public class Node {
     }
 
     public boolean isDisplayed() {
-        //display only nodes last seen within the last 30 days
-        return isValid() && (getLastSeen() > System.currentTimeMillis() - (1000L * 60 * 60 * 24 * 30));
+        return resolved().displayed;
     }
 
     public boolean isShown() {
-        switch (getRole()) {
-            case STANDARD:
-                return hasValidLocation();
-            case MOBILE:
-                return hasValidLocation() && isOnline() && isFWVersionHigher(0, 9);
-            case SERVER:
-            default:
-                return false;
-        }
+        return resolved().shown;
     }
 
     public boolean canHasClients() {
@@ -111,30 +102,15 @@ public class Node {
     }
 
     public boolean isGateway() {
-        if (dpApi != null) {
-            return dpApi.isGateway();
-        }
-        return false;
+        return resolved().gateway;
     }
 
     public boolean hasBackbone() {
-        if (dpApi != null) {
-            return dpApi.hasBackbone();
-        }
-        return false;
+        return resolved().backbone;
     }
 
     public boolean isAutoUpdateEnabled() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getAutoUpdate();
-        }
-        if (dpApi != null) {
-            return dpApi.getAutoUpdate();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getAutoUpdate();
-        }
-        return false;
+        return resolved().autoUpdate;
     }
 
     public boolean isServerNode() {
@@ -154,22 +130,25 @@ public class Node {
     }
 
     public boolean isFWVersionHigher(int minor, int patch) {
-        String[] fw = getFirmwareVersion().split("\\.");
-        if (fw.length == 3) {
-            if (Integer.parseInt(fw[1]) > minor) {
+        return isFWVersionHigher(resolved().firmware, minor, patch);
+    }
+
+    private static boolean isFWVersionHigher(int[] fw, int minor, int patch) {
+        if (fw != null) {
+            if (fw[1] > minor) {
                 return true;
-            } else if (Integer.parseInt(fw[1]) == minor && Integer.parseInt(fw[2]) >= patch) {
+            } else if (fw[1] == minor && fw[2] >= patch) {
                 return true;
             }
         }
         return false;
     }
 
-    public Collection<Link> getLinks() {
+    public NodeLinks getLinks() {
         if (dpSysinfo != null) {
-            return dpSysinfo.getLinkSet();
+            return dpSysinfo.getLinks();
         }
-        return Collections.emptySet();
+        return NodeLinks.EMPTY;
     }
 
     public short getClients() {
@@ -208,125 +187,47 @@ public class Node {
     }
 
     public String getFirmwareVersion() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getFirmwareVersion();
-        }
-        if (dpApi != null) {
-            return dpApi.getFirmwareVersion();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getFirmwareVersion();
-        }
-        return null;
+        return resolved().firmwareVersion;
     }
 
     public String getFirmwareBase() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getFirmwareBase();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getFirmwareBase();
-        }
-        return null;
+        return resolved().firmwareBase;
     }
 
     public Community getCommunity() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getCommunity();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getCommunity();
-        }
-        return Community.DEFAULT;
+        return resolved().community;
     }
 
     public Node getGateway() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getGateway();
-        }
-        return null;
+        return resolved().gatewayNode;
     }
 
     public NodeType getRole() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getRole();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getRole();
-        }
-        return NodeType.STANDARD;
+        return resolved().role;
     }
 
     public String getName() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getName();
-        }
-        if (dpApi != null) {
-            return dpApi.getName();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getName();
-        }
-        return null;
+        return resolved().name;
     }
 
     public String getEMail() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getEMail();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getEMail();
-        }
-        return null;
+        return resolved().eMail;
     }
 
     public String getModel() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getModel();
-        }
-        if (dpApi != null) {
-            return dpApi.getModel();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getModel();
-        }
-        return null;
+        return resolved().model;
     }
 
     public Location getLocation() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getLocation();
-        }
-        if (dpApi != null) {
-            return dpApi.getLocation();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getLocation();
-        }
-        return null;
+        return resolved().location;
     }
 
     public long getLastSeen() {
-        if (dpSysinfo != null) {
-            return dpSysinfo.getLastSeen();
-        }
-        if (dpApi != null) {
-            return dpApi.getLastSeen();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getLastSeen();
-        }
-        return 0;
+        return resolved().lastSeen;
     }
 
     public long getFirstSeen() {
-        if (dpApi != null) {
-            return dpApi.getFirstSeen();
-        }
-        if (dpDatabase != null) {
-            return dpDatabase.getFirstSeen();
-        }
-        return 0;
+        return resolved().firstSeen;
     }
 
     public Airtime getAirtime2g() {
@@ -376,11 +277,23 @@ public class Node {
     }
 
     public boolean hasValidLocation() {
-        Location l = getLocation();
-        return l != null && l.isValid();
+        return resolved().validLocation;
+    }
+
+    /**
+     * Materializes the merged sysinfo, API and database values. Must be called
+     * once all data sources are set, the getters then only read the result.
+     */
+    public void resolve() {
+        resolved = new Resolved(isValid(), dpSysinfo, dpApi, dpDatabase);
     }
 
-    public void updateDatabase() {
+    private Resolved resolved() {
+        Resolved r = resolved;
+        return r != null ? r : new Resolved(isValid(), dpSysinfo, dpApi, dpDatabase);
+    }
+
+    public void updateDatabase(NodeBatchWriter writer) {
         Location l = getLocation();
         Double lat = null;
         Double lon = null;
@@ -388,11 +301,11 @@ public class Node {
             lat = l.getLatitude();
             lon = l.getLongitude();
         }
-        DataGen.getDB().queryUpdate("CALL updateNode(?,?,?,?,?,?,?,?,?,?,?,?,?,?)", id, lat, lon,
-                getCommunity().getName(), getRole().name(), getModel(), getFirmwareVersion(), getFirmwareBase(),
-                getFirstSeen() / 1000, getLastSeen() / 1000, isAutoUpdateEnabled(), isGateway(), getName(), getEMail());
-        AirtimeSQL.updateAirtime2G(this);
-        AirtimeSQL.updateAirtime5G(this);
+        writer.addNode(id, lat, lon, getCommunity().getName(), getRole().name(), getModel(), getFirmwareVersion(),
+                getFirmwareBase(), getFirstSeen() / 1000, getLastSeen() / 1000, isAutoUpdateEnabled(), isGateway(),
+                getName(), getEMail());
+        writer.addAirtime(id, 2, getAirtime2g());
+        writer.addAirtime(id, 5, getAirtime5g());
     }
 
     public void collectStats() {
@@ -412,6 +325,21 @@ public class Node {
         }
     }
 
+    private static int[] parseFirmwareVersion(String version) {
+        if (version == null) {
+            return null;
+        }
+        String[] fw = version.split("\\.");
+        if (fw.length != 3) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(fw[0]), Integer.parseInt(fw[1]), Integer.parseInt(fw[2])};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
     public static int convertIpToId(String ip) {
         String[] split = ip.split("\\.");
         if (split.length == 4) {
@@ -421,4 +349,102 @@ public class Node {
         }
         return -1;
     }
+
+    private static final class Resolved {
+
+        private final boolean gateway;
+        private final boolean backbone;
+        private final boolean autoUpdate;
+        private final String firmwareVersion;
+        private final int[] firmware;
+        private final String firmwareBase;
+        private final Community community;
+        private final Node gatewayNode;
+        private final NodeType role;
+        private final String name;
+        private final String eMail;
+        private final String model;
+        private final Location location;
+        private final boolean validLocation;
+        private final long lastSeen;
+        private final long firstSeen;
+        private final boolean displayed;
+        private final boolean shown;
+
+        private Resolved(boolean valid, DataParserSysinfo sys, DataParserAPI api, DataParserDB db) {
+            gateway = api != null && api.isGateway();
+            backbone = api != null && api.hasBackbone();
+            if (sys != null) {
+                autoUpdate = sys.getAutoUpdate();
+                firmwareVersion = sys.getFirmwareVersion();
+                firmwareBase = sys.getFirmwareBase();
+                community = sys.getCommunity();
+                gatewayNode = sys.getGateway();
+                role = sys.getRole();
+                name = sys.getName();
+                eMail = sys.getEMail();
+                model = sys.getModel();
+                location = sys.getLocation();
+                lastSeen = sys.getLastSeen();
+            } else if (api != null) {
+                autoUpdate = api.getAutoUpdate();
+                firmwareVersion = api.getFirmwareVersion();
+                firmwareBase = db != null ? db.getFirmwareBase() : null;
+                community = db != null ? db.getCommunity() : Community.DEFAULT;
+                gatewayNode = null;
+                role = db != null ? db.getRole() : NodeType.STANDARD;
+                name = api.getName();
+                eMail = db != null ? db.getEMail() : null;
+                model = api.getModel();
+                location = api.getLocation();
+                lastSeen = api.getLastSeen();
+            } else if (db != null) {
+                autoUpdate = db.getAutoUpdate();
+                firmwareVersion = db.getFirmwareVersion();
+                firmwareBase = db.getFirmwareBase();
+                community = db.getCommunity();
+                gatewayNode = null;
+                role = db.getRole();
+                name = db.getName();
+                eMail = db.getEMail();
+                model = db.getModel();
+                location = db.getLocation();
+                lastSeen = db.getLastSeen();
+            } else {
+                autoUpdate = false;
+                firmwareVersion = null;
+                firmwareBase = null;
+                community = Community.DEFAULT;
+                gatewayNode = null;
+                role = NodeType.STANDARD;
+                name = null;
+                eMail = null;
+                model = null;
+                location = null;
+                lastSeen = 0;
+            }
+            if (api != null) {
+                firstSeen = api.getFirstSeen();
+            } else if (db != null) {
+                firstSeen = db.getFirstSeen();
+            } else {
+                firstSeen = 0;
+            }
+            firmware = parseFirmwareVersion(firmwareVersion);
+            validLocation = location != null && location.isValid();
+            //display only nodes last seen within the last 30 days
+            displayed = valid && lastSeen > System.currentTimeMillis() - (1000L * 60 * 60 * 24 * 30);
+            switch (role) {
+                case STANDARD:
+                    shown = validLocation;
+                    break;
+                case MOBILE:
+                    shown = validLocation && sys != null && isFWVersionHigher(firmware, 0, 9);
+                    break;
+                case SERVER:
+                default:
+                    shown = false;
+            }
+        }
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend;
+
+public class NodeLinks {
+
+    public static final NodeLinks EMPTY = new NodeLinks(new int[0], new byte[0], new LinkType[0]);
+
+    private final int[] targets;
+    private final byte[] tq;
+    private final LinkType[] types;
+
+    public NodeLinks(int[] targets, byte[] tq, LinkType[] types) {
+        this.targets = targets;
+        this.tq = tq;
+        this.types = types;
+    }
+
+    public int size() {
+        return targets.length;
+    }
+
+    public int getTarget(int i) {
+        return targets[i];
+    }
+
+    public byte getTq(int i) {
+        return tq[i];
+    }
+
+    public LinkType getType(int i) {
+        return types[i];
+    }
+}
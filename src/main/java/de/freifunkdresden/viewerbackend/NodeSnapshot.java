@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable node set of one run, shared by all stages after the crawl.
+ * The filtered views are built on first access, once the node data is complete.
+ */
+public class NodeSnapshot {
+
+    private final List<Node> nodes;
+    private List<Node> displayed;
+    private List<Node> online;
+
+    NodeSnapshot(List<Node> nodes) {
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public synchronized List<Node> getDisplayed() {
+        if (displayed == null) {
+            displayed = filter(Node::isDisplayed);
+        }
+        return displayed;
+    }
+
+    public synchronized List<Node> getOnline() {
+        if (online == null) {
+            online = filter(Node::isOnline);
+        }
+        return online;
+    }
+
+    private List<Node> filter(Predicate<Node> predicate) {
+        return nodes.stream().filter(predicate).collect(Collectors.toUnmodifiableList());
+    }
+}
@@ -55,65 +55,98 @@ public class DataParserDB {
 
     public void parse(ResultSet rs) {
         try {
-            boolean au = rs.getBoolean("autoupdate");
-            autoUpdate = !rs.wasNull() && au;
+            parse(rs, Columns.resolve(rs));
         } catch (SQLException e) {
             LOGGER.log(Level.ERROR, "Database read failed", e);
         }
-        try {
-            community = Community.getCommunity(rs.getString("community"));
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+    }
+
+    /**
+     * Reads the current row using column indexes resolved once per result set.
+     */
+    public void parse(ResultSet rs, Columns c) {
+        if (c.autoUpdate > 0) {
+            try {
+                boolean au = rs.getBoolean(c.autoUpdate);
+                autoUpdate = !rs.wasNull() && au;
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            eMail = rs.getString("email");
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.community > 0) {
+            try {
+                community = Community.getCommunity(rs.getString(c.community));
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            firmwareBase = rs.getString("firmwareBase");
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.eMail > 0) {
+            try {
+                eMail = rs.getString(c.eMail);
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            firmwareVersion = rs.getString("firmwareVersion");
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.firmwareBase > 0) {
+            try {
+                firmwareBase = rs.getString(c.firmwareBase);
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            firstSeen = rs.getLong("firstseen") * 1000;
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.firmwareVersion > 0) {
+            try {
+                firmwareVersion = rs.getString(c.firmwareVersion);
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            lastSeen = rs.getLong("lastseen") * 1000;
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.firstSeen > 0) {
+            try {
+                firstSeen = rs.getLong(c.firstSeen) * 1000;
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            double latitude = rs.getDouble("latitude");
-            latitude = rs.wasNull() ? Double.NaN : latitude;
-            double longitude = rs.getDouble("longitude");
-            longitude = rs.wasNull() ? Double.NaN : longitude;
-            location = new Location(latitude, longitude);
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.lastSeen > 0) {
+            try {
+                lastSeen = rs.getLong(c.lastSeen) * 1000;
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            model = rs.getString("model");
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.latitude > 0 && c.longitude > 0) {
+            try {
+                double latitude = rs.getDouble(c.latitude);
+                latitude = rs.wasNull() ? Double.NaN : latitude;
+                double longitude = rs.getDouble(c.longitude);
+                longitude = rs.wasNull() ? Double.NaN : longitude;
+                location = new Location(latitude, longitude);
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            name = rs.getString("name");
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.model > 0) {
+            try {
+                model = rs.getString(c.model);
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
-        try {
-            String r = rs.getString("role");
-            role = r == null ? NodeType.STANDARD : NodeType.valueOf(r.toUpperCase());
-        } catch (SQLException e) {
-            LOGGER.log(Level.ERROR, "Database read failed", e);
+        if (c.name > 0) {
+            try {
+                name = rs.getString(c.name);
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
+        }
+        if (c.role > 0) {
+            try {
+                String r = rs.getString(c.role);
+                role = r == null ? NodeType.STANDARD : NodeType.valueOf(r.toUpperCase());
+            } catch (SQLException e) {
+                LOGGER.log(Level.ERROR, "Database read failed", e);
+            }
         }
     }
 
@@ -160,4 +193,58 @@ public class DataParserDB {
     public NodeType getRole() {
         return role;
     }
+
+    public static final class Columns {
+
+        private final int id;
+        private final int autoUpdate;
+        private final int community;
+        private final int eMail;
+        private final int firmwareBase;
+        private final int firmwareVersion;
+        private final int firstSeen;
+        private final int lastSeen;
+        private final int latitude;
+        private final int longitude;
+        private final int model;
+        private final int name;
+        private final int role;
+
+        private Columns(ResultSet rs) throws SQLException {
+            id = rs.findColumn("id");
+            autoUpdate = optional(rs, "autoupdate");
+            community = optional(rs, "community");
+            eMail = optional(rs, "email");
+            firmwareBase = optional(rs, "firmwareBase");
+            firmwareVersion = optional(rs, "firmwareVersion");
+            firstSeen = optional(rs, "firstseen");
+            lastSeen = optional(rs, "lastseen");
+            latitude = optional(rs, "latitude");
+            longitude = optional(rs, "longitude");
+            model = optional(rs, "model");
+            name = optional(rs, "name");
+            role = optional(rs, "role");
+        }
+
+        /**
+         * Index of the column, or -1 if the table has no such column and the
+         * value keeps its default.
+         */
+        private static int optional(ResultSet rs, String column) {
+            try {
+                return rs.findColumn(column);
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARN, "Column {} not found in nodes table", column);
+                return -1;
+            }
+        }
+
+        public static Columns resolve(ResultSet rs) throws SQLException {
+            return new Columns(rs);
+        }
+
+        public int getId() {
+            return id;
+        }
+    }
 }
@@ -24,14 +24,15 @@
 
 package de.freifunkdresden.viewerbackend.dataparser;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import de.freifunkdresden.viewerbackend.Airtime;
 import de.freifunkdresden.viewerbackend.Community;
 import de.freifunkdresden.viewerbackend.DataGen;
-import de.freifunkdresden.viewerbackend.Link;
 import de.freifunkdresden.viewerbackend.LinkType;
 import de.freifunkdresden.viewerbackend.Location;
 import de.freifunkdresden.viewerbackend.Node;
+import de.freifunkdresden.viewerbackend.NodeLinks;
 import de.freifunkdresden.viewerbackend.NodeType;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -39,38 +40,109 @@ import org.apache.logging.log4j.Logger;
 
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
+import java.util.function.Supplier;
 
+/**
+ * Reads all values of a sysinfo once on construction. The version specific
+ * differences are supplied as a {@link Format}, the json itself is not kept.
+ * A single unreadable value is logged and replaced by its default.
+ */
 public class DataParserSysinfo {
 
     private static final Logger LOGGER = LogManager.getLogger(DataParserSysinfo.class);
+    private static final Format FORMAT = new Format();
 
-    final JsonObject data;
-    private final JsonObject stats;
     private final long lastSeen = System.currentTimeMillis();
+    private final int nodeId;
     private final Community community;
+    private final NodeType role;
+    private final String model;
+    private final String firmwareVersion;
+    private final String firmwareBase;
+    private final int gatewayId;
+    private final float uptime;
+    private final double memoryUsage;
+    private final float loadAvg;
+    private final short clients;
+    private final NodeLinks links;
+    private final String name;
+    private final String eMail;
+    private final boolean autoUpdate;
+    private final Location location;
+    private final int cpuCount;
+    private final Airtime airtime2g;
+    private final Airtime airtime5g;
+    private final TrafficInfo traffic;
 
     public DataParserSysinfo(JsonObject data) {
-        this.data = data;
+        this(data, FORMAT);
+    }
+
+    DataParserSysinfo(JsonObject data, Format format) {
+        JsonObject stats;
         if (data.has("statistic")) {
             stats = data.get("statistic").getAsJsonObject();
         } else {
             stats = data.get("statistics").getAsJsonObject();
         }
+        JsonObject common = data.get("common").getAsJsonObject();
+        nodeId = common.get("node").getAsInt();
+
+        //a field that cannot be read falls back to its default, the others are still used
+        role = parse("role", () -> format.parseRole(section(data, "system")), NodeType.STANDARD);
+        model = parse("model", () -> format.parseModel(section(data, "system")), null);
+        firmwareVersion = parse("firmware version", () -> section(data, "firmware").get("version").getAsString(), null);
+        firmwareBase = parse("firmware base", () -> parseFirmwareBase(section(data, "firmware")), null);
+        gatewayId = parse("gateway", () -> Node.convertIpToId(section(data, "bmxd").get("gateways")
+                .getAsJsonObject().get("selected").getAsString()), -1);
+        uptime = parse("uptime", () -> format.parseUptime(section(data, "system").get("uptime").getAsString()), 0f);
+        memoryUsage = parse("memory usage", () -> parseMemoryUsage(stats), 0d);
+        loadAvg = parse("load", () -> Float.parseFloat(stats.get("cpu_load").getAsString().split(" ")[1]), 0f);
+        clients = parse("clients", () -> format.parseClients(stats), (short) 0);
+        links = parse("links", () -> format.parseLinks(section(data, "bmxd")), NodeLinks.EMPTY);
+        name = parse("name", () -> decode(section(data, "contact").get("name").getAsString()), null);
+        eMail = parse("email", () -> decode(section(data, "contact").get("email").getAsString()), null);
+        autoUpdate = parse("autoupdate", () -> format.parseAutoUpdate(section(data, "system")), false);
+        location = parse("location", () -> parseLocation(data), null);
+        cpuCount = parse("cpucount", () -> {
+            JsonObject system = section(data, "system");
+            return system.has("cpucount") ? system.get("cpucount").getAsInt() : 0;
+        }, 0);
+        airtime2g = parse("airtime", () -> parseAirtime(data, "radio2g"), Airtime.EMPTY);
+        airtime5g = parse("airtime", () -> parseAirtime(data, "radio5g"), Airtime.EMPTY);
+        traffic = parse("traffic", () -> format.parseTraffic(stats), new TrafficInfo());
 
-        String c = data.get("common").getAsJsonObject().get("city").getAsString();
+        String c = common.get("city").getAsString();
         community = Community.getCommunity(c);
         if (community == Community.DEFAULT) {
-            LOGGER.log(Level.WARN, "Node {} has invalid community `{}` (Name: {})", getNodeId(), c, getName());
+            LOGGER.log(Level.WARN, "Node {} has invalid community `{}` (Name: {})", nodeId, c, name);
         }
     }
 
+    private <T> T parse(String field, Supplier<T> parser, T fallback) {
+        try {
+            return parser.get();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARN, "Node {}: sysinfo {} unreadable ({})", nodeId, field, ex.toString());
+            return fallback;
+        }
+    }
+
+    private static JsonObject section(JsonObject data, String name) {
+        return data.get(name).getAsJsonObject();
+    }
+
+    static JsonArray getRoutingLinks(JsonObject bmxd) {
+        JsonObject rt = bmxd.has("routing_tables") ? bmxd.get("routing_tables").getAsJsonObject() : bmxd.get("RoutingTables").getAsJsonObject();
+        return rt.get("route").getAsJsonObject().get("link").getAsJsonArray();
+    }
+
     public long getLastSeen() {
         return lastSeen;
     }
 
     int getNodeId() {
-        return data.get("common").getAsJsonObject().get("node").getAsInt();
+        return nodeId;
     }
 
     public Community getCommunity() {
@@ -78,100 +150,91 @@ public class DataParserSysinfo {
     }
 
     public NodeType getRole() {
-        return NodeType.STANDARD;
+        return role;
     }
 
     public String getModel() {
-        return data.get("system").getAsJsonObject().get("model").getAsString();
+        return model;
     }
 
     public String getFirmwareVersion() {
-        return data.get("firmware").getAsJsonObject().get("version").getAsString();
+        return firmwareVersion;
     }
 
     public String getFirmwareBase() {
-        JsonObject firmware = data.get("firmware").getAsJsonObject();
-        String distribId = firmware.get("DISTRIB_ID").getAsString();
-        String distribRelease = firmware.get("DISTRIB_RELEASE").getAsString();
-        String distribRev = firmware.get("DISTRIB_REVISION").getAsString();
-        return distribId + " " + distribRelease + " " + distribRev;
+        return firmwareBase;
     }
 
     public Node getGateway() {
-        String ip = data.get("bmxd").getAsJsonObject().get("gateways").getAsJsonObject().get("selected").getAsString();
-        int id = Node.convertIpToId(ip);
-        return DataGen.getDataHolder().getNode(id);
+        return gatewayId != -1 ? DataGen.getDataHolder().getNode(gatewayId) : null;
     }
 
     public float getUptime() {
-        String jsonUptime = data.get("system").getAsJsonObject().get("uptime").getAsString();
-        String[] uptime = jsonUptime.split("\\s+");
-        if (jsonUptime.contains(":")) {
-            String array3 = uptime[3].replace(",", "");
-            if (array3.contains(":")) {
-                return parseMinutes(array3) * 60f;
-            } else {
-                short days = Short.parseShort(array3);
-                int min;
-                String minutes = uptime[5].replace(",", "");
-                String time = uptime[6].replace(",", "");
-                if (minutes.isEmpty()) {
-                    min = parseMinutes(time);
-                } else {
-                    min = parseMinutes(minutes);
-                }
-                return min * 60f + days * 86400f;
-            }
-            //Ab v10
-        } else {
-            return Float.parseFloat(uptime[0]);
-        }
+        return uptime;
     }
 
     public double getMemoryUsage() {
-        double memTotal = Integer.parseInt(stats.get("meminfo_MemTotal").getAsString().split(" ")[0]);
-        double memFree = Integer.parseInt(stats.get("meminfo_MemFree").getAsString().split(" ")[0]);
-        return (memTotal - memFree) / memTotal;
+        return memoryUsage;
     }
 
     public float getLoadAvg() {
-        return Float.parseFloat(stats.get("cpu_load").getAsString().split(" ")[1]);
+        return loadAvg;
     }
 
     public short getClients() {
-        return stats.get("accepted_user_count").getAsShort();
+        return clients;
     }
 
-    public HashSet<Link> getLinkSet() {
-        HashSet<Link> linkmap = new HashSet<>();
-        Node node = DataGen.getDataHolder().getNode(getNodeId());
-        JsonObject bmxd = data.get("bmxd").getAsJsonObject();
-        JsonObject rt = bmxd.has("routing_tables") ? bmxd.get("routing_tables").getAsJsonObject() : bmxd.get("RoutingTables").getAsJsonObject();
-        rt.get("route").getAsJsonObject().get("link").getAsJsonArray().forEach(link -> {
-            JsonObject l = link.getAsJsonObject();
-            int targetId = Node.convertIpToId(l.get("target").getAsString());
-            LinkType linkType = LinkType.getTypeByInterface(l.get("interface").getAsString());
-            Node target = DataGen.getDataHolder().getNode(targetId);
-            linkmap.add(new Link(linkType, target, node));
-        });
-        return linkmap;
+    public NodeLinks getLinks() {
+        return links;
     }
 
     public String getName() {
-        String name = data.get("contact").getAsJsonObject().get("name").getAsString();
-        return URLDecoder.decode(name, StandardCharsets.UTF_8);
+        return name;
     }
 
     public String getEMail() {
-        String email = data.get("contact").getAsJsonObject().get("email").getAsString();
-        return URLDecoder.decode(email, StandardCharsets.UTF_8);
+        return eMail;
     }
 
     public boolean getAutoUpdate() {
-        return false;
+        return autoUpdate;
     }
 
     public Location getLocation() {
+        return location;
+    }
+
+    public int getCPUCount() {
+        return cpuCount;
+    }
+
+    public Airtime getAirtime2g() {
+        return airtime2g;
+    }
+
+    public Airtime getAirtime5g() {
+        return airtime5g;
+    }
+
+    public TrafficInfo getTraffic() {
+        return traffic;
+    }
+
+    private static String parseFirmwareBase(JsonObject firmware) {
+        String distribId = firmware.get("DISTRIB_ID").getAsString();
+        String distribRelease = firmware.get("DISTRIB_RELEASE").getAsString();
+        String distribRev = firmware.get("DISTRIB_REVISION").getAsString();
+        return distribId + " " + distribRelease + " " + distribRev;
+    }
+
+    private static double parseMemoryUsage(JsonObject stats) {
+        double memTotal = Integer.parseInt(stats.get("meminfo_MemTotal").getAsString().split(" ")[0]);
+        double memFree = Integer.parseInt(stats.get("meminfo_MemFree").getAsString().split(" ")[0]);
+        return (memTotal - memFree) / memTotal;
+    }
+
+    private static Location parseLocation(JsonObject data) {
         try {
             JsonObject gps = data.get("gps").getAsJsonObject();
             double lat = gps.get("latitude").getAsDouble();
@@ -184,24 +247,25 @@ public class DataParserSysinfo {
         }
     }
 
-    public int getCPUCount() {
-        JsonObject system = data.get("system").getAsJsonObject();
-        return system.has("cpucount") ? system.get("cpucount").getAsInt() : 0;
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            return value;
+        }
     }
 
-    public Airtime getAirtime2g() {
-        if (data.has("airtime") && data.get("airtime").getAsJsonObject().has("radio2g")) {
-            String at = data.get("airtime").getAsJsonObject().get("radio2g").getAsString();
-            if (!at.isEmpty()) {
-                return getAirtime(at);
-            }
+    private static int parseMinutes(String time) {
+        if (time.contains(":")) {
+            return Integer.parseInt(time.split(":")[0]) * 60 + Integer.parseInt(time.split(":")[1]);
+        } else {
+            return Integer.parseInt(time);
         }
-        return Airtime.EMPTY;
     }
 
-    public Airtime getAirtime5g() {
-        if (data.has("airtime") && data.get("airtime").getAsJsonObject().has("radio5g")) {
-            String at = data.get("airtime").getAsJsonObject().get("radio5g").getAsString();
+    private Airtime parseAirtime(JsonObject data, String radio) {
+        if (data.has("airtime") && data.get("airtime").getAsJsonObject().has(radio)) {
+            String at = data.get("airtime").getAsJsonObject().get(radio).getAsString();
             if (!at.isEmpty()) {
                 return getAirtime(at);
             }
@@ -209,26 +273,77 @@ public class DataParserSysinfo {
         return Airtime.EMPTY;
     }
 
-    public TrafficInfo getTraffic() {
-        return new TrafficInfo();
-    }
-
-    private static int parseMinutes(String time) {
-        if (time.contains(":")) {
-            return Integer.parseInt(time.split(":")[0]) * 60 + Integer.parseInt(time.split(":")[1]);
-        } else {
-            return Integer.parseInt(time);
-        }
-    }
-
     private Airtime getAirtime(String airtime) {
         String[] split = airtime.split(",");
         try {
             return new Airtime(Integer.parseInt(split[0]), Integer.parseInt(split[1]),
                     Integer.parseInt(split[2]), Integer.parseInt(split[3]));
         } catch (NumberFormatException e) {
-            LOGGER.log(Level.ERROR, String.format("Airtime format (Node: %d)", getNodeId()), e);
+            LOGGER.log(Level.ERROR, String.format("Airtime format (Node: %d)", nodeId), e);
             return Airtime.EMPTY;
         }
     }
+
+    /**
+     * Parsing steps that differ between firmware versions. Subclasses of the
+     * parser pass their own format to the constructor.
+     */
+    static class Format {
+
+        NodeType parseRole(JsonObject system) {
+            return NodeType.STANDARD;
+        }
+
+        String parseModel(JsonObject system) {
+            return system.get("model").getAsString();
+        }
+
+        float parseUptime(String jsonUptime) {
+            String[] uptime = jsonUptime.split("\\s+");
+            if (jsonUptime.contains(":")) {
+                String array3 = uptime[3].replace(",", "");
+                if (array3.contains(":")) {
+                    return parseMinutes(array3) * 60f;
+                } else {
+                    short days = Short.parseShort(array3);
+                    int min;
+                    String minutes = uptime[5].replace(",", "");
+                    String time = uptime[6].replace(",", "");
+                    if (minutes.isEmpty()) {
+                        min = parseMinutes(time);
+                    } else {
+                        min = parseMinutes(minutes);
+                    }
+                    return min * 60f + days * 86400f;
+                }
+                //Ab v10
+            } else {
+                return Float.parseFloat(uptime[0]);
+            }
+        }
+
+        short parseClients(JsonObject stats) {
+            return stats.get("accepted_user_count").getAsShort();
+        }
+
+        NodeLinks parseLinks(JsonObject bmxd) {
+            JsonArray routes = getRoutingLinks(bmxd);
+            int[] targets = new int[routes.size()];
+            LinkType[] types = new LinkType[routes.size()];
+            for (int i = 0; i < targets.length; i++) {
+                JsonObject l = routes.get(i).getAsJsonObject();
+                targets[i] = Node.convertIpToId(l.get("target").getAsString());
+                types[i] = LinkType.getTypeByInterface(l.get("interface").getAsString());
+            }
+            return new NodeLinks(targets, new byte[targets.length], types);
+        }
+
+        boolean parseAutoUpdate(JsonObject system) {
+            return false;
+        }
+
+        TrafficInfo parseTraffic(JsonObject stats) {
+            return new TrafficInfo();
+        }
+    }
 }
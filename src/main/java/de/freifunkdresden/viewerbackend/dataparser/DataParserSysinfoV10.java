@@ -24,41 +24,55 @@
 
 package de.freifunkdresden.viewerbackend.dataparser;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import de.freifunkdresden.viewerbackend.DataGen;
-import de.freifunkdresden.viewerbackend.Link;
+import de.freifunkdresden.viewerbackend.LinkType;
 import de.freifunkdresden.viewerbackend.Node;
+import de.freifunkdresden.viewerbackend.NodeLinks;
 
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 
 public class DataParserSysinfoV10 extends DataParserSysinfo {
 
+    private static final Format FORMAT = new FormatV10();
+
     public DataParserSysinfoV10(JsonObject data) {
-        super(data);
+        super(data, FORMAT);
     }
 
-    @Override
-    public float getUptime() {
-        String jsonUptime = data.get("system").getAsJsonObject().get("uptime").getAsString();
-        String[] uptime = jsonUptime.split("\\s+");
-        return Float.parseFloat(uptime[0]);
+    DataParserSysinfoV10(JsonObject data, Format format) {
+        super(data, format);
     }
 
-    @Override
-    public HashSet<Link> getLinkSet() {
-        HashSet<Link> linkmap = super.getLinkSet();
-        JsonObject bmxd = data.get("bmxd").getAsJsonObject();
-        bmxd.get("links").getAsJsonArray().forEach(link -> {
-            JsonObject l = link.getAsJsonObject();
-            Node target = DataGen.getDataHolder().getNode(l.get("node").getAsInt());
-            byte tq = Byte.parseByte(l.get("tq").getAsString());
-            for (Link lnk : linkmap) {
-                if (lnk.getTarget().equals(target)) {
-                    lnk.setSourceTq(tq);
-                    return;
-                }
+    static class FormatV10 extends Format {
+
+        @Override
+        float parseUptime(String jsonUptime) {
+            String[] uptime = jsonUptime.split("\\s+");
+            return Float.parseFloat(uptime[0]);
+        }
+
+        @Override
+        NodeLinks parseLinks(JsonObject bmxd) {
+            Map<Integer, Byte> tqs = new HashMap<>();
+            bmxd.get("links").getAsJsonArray().forEach(link -> {
+                JsonObject l = link.getAsJsonObject();
+                tqs.put(l.get("node").getAsInt(), Byte.parseByte(l.get("tq").getAsString()));
+            });
+            JsonArray routes = getRoutingLinks(bmxd);
+            int[] targets = new int[routes.size()];
+            byte[] tq = new byte[routes.size()];
+            LinkType[] types = new LinkType[routes.size()];
+            for (int i = 0; i < targets.length; i++) {
+                JsonObject l = routes.get(i).getAsJsonObject();
+                targets[i] = Node.convertIpToId(l.get("target").getAsString());
+                types[i] = LinkType.getTypeByInterface(l.get("interface").getAsString());
+                //tq belongs to the first route to a node only
+                Byte t = tqs.remove(targets[i]);
+                tq[i] = t == null ? 0 : t;
             }
-        });
-        return linkmap;
+            return new NodeLinks(targets, tq, types);
+        }
     }
 }
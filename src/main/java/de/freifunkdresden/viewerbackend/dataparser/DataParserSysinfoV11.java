@@ -24,32 +24,42 @@
 
 package de.freifunkdresden.viewerbackend.dataparser;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import de.freifunkdresden.viewerbackend.DataGen;
-import de.freifunkdresden.viewerbackend.Link;
 import de.freifunkdresden.viewerbackend.LinkType;
-import de.freifunkdresden.viewerbackend.Node;
-
-import java.util.HashSet;
+import de.freifunkdresden.viewerbackend.NodeLinks;
 
 public class DataParserSysinfoV11 extends DataParserSysinfoV10 {
 
+    private static final Format FORMAT = new FormatV11();
+
     public DataParserSysinfoV11(JsonObject data) {
-        super(data);
+        super(data, FORMAT);
+    }
+
+    DataParserSysinfoV11(JsonObject data, Format format) {
+        super(data, format);
     }
 
-    @Override
-    public HashSet<Link> getLinkSet() {
-        HashSet<Link> linkmap = new HashSet<>();
-        Node node = DataGen.getDataHolder().getNode(getNodeId());
-        JsonObject bmxd = data.get("bmxd").getAsJsonObject();
-        bmxd.get("links").getAsJsonArray().forEach(link -> {
-            JsonObject l = link.getAsJsonObject();
-            Node target = DataGen.getDataHolder().getNode(l.get("node").getAsInt());
-            byte tq = Byte.parseByte(l.get("tq").getAsString());
-            LinkType linkType = LinkType.getTypeByInterface(l.get("interface").getAsString());
-            linkmap.add(new Link(linkType, tq, target, node));
-        });
-        return linkmap;
+    static class FormatV11 extends FormatV10 {
+
+        @Override
+        NodeLinks parseLinks(JsonObject bmxd) {
+            JsonArray links = bmxd.get("links").getAsJsonArray();
+            int[] targets = new int[links.size()];
+            byte[] tq = new byte[links.size()];
+            LinkType[] types = new LinkType[links.size()];
+            for (int i = 0; i < targets.length; i++) {
+                JsonObject l = links.get(i).getAsJsonObject();
+                targets[i] = l.get("node").getAsInt();
+                tq[i] = Byte.parseByte(l.get("tq").getAsString());
+                types[i] = parseLinkType(l);
+            }
+            return new NodeLinks(targets, tq, types);
+        }
+
+        LinkType parseLinkType(JsonObject link) {
+            return LinkType.getTypeByInterface(link.get("interface").getAsString());
+        }
     }
 }
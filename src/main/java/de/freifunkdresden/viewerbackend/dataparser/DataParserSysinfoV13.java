@@ -29,20 +29,29 @@ import de.freifunkdresden.viewerbackend.NodeType;
 
 public class DataParserSysinfoV13 extends DataParserSysinfoV11 {
 
+    private static final Format FORMAT = new FormatV13();
+
     public DataParserSysinfoV13(JsonObject data) {
-        super(data);
+        super(data, FORMAT);
+    }
+
+    DataParserSysinfoV13(JsonObject data, Format format) {
+        super(data, format);
     }
 
-    @Override
-    public NodeType getRole() {
-        switch (data.get("system").getAsJsonObject().get("node_type").getAsString().toLowerCase()) {
-            default:
-            case "node":
-                return NodeType.STANDARD;
-            case "mobile":
-                return NodeType.MOBILE;
-            case "server":
-                return NodeType.SERVER;
+    static class FormatV13 extends FormatV11 {
+
+        @Override
+        NodeType parseRole(JsonObject system) {
+            switch (system.get("node_type").getAsString().toLowerCase()) {
+                default:
+                case "node":
+                    return NodeType.STANDARD;
+                case "mobile":
+                    return NodeType.MOBILE;
+                case "server":
+                    return NodeType.SERVER;
+            }
         }
     }
 }
@@ -25,41 +25,35 @@
 package de.freifunkdresden.viewerbackend.dataparser;
 
 import com.google.gson.JsonObject;
-import de.freifunkdresden.viewerbackend.DataGen;
-import de.freifunkdresden.viewerbackend.Link;
 import de.freifunkdresden.viewerbackend.LinkType;
-import de.freifunkdresden.viewerbackend.Node;
-
-import java.util.HashSet;
 
 public class DataParserSysinfoV14 extends DataParserSysinfoV13 {
 
+    private static final Format FORMAT = new FormatV14();
+
     public DataParserSysinfoV14(JsonObject data) {
-        super(data);
+        super(data, FORMAT);
     }
 
-    @Override
-    public String getModel() {
-        return data.get("system").getAsJsonObject().get("model2").getAsString();
+    DataParserSysinfoV14(JsonObject data, Format format) {
+        super(data, format);
     }
 
-    @Override
-    public HashSet<Link> getLinkSet() {
-        HashSet<Link> linkmap = new HashSet<>();
-        Node node = DataGen.getDataHolder().getNode(getNodeId());
-        JsonObject bmxd = data.get("bmxd").getAsJsonObject();
-        bmxd.get("links").getAsJsonArray().forEach(link -> {
-            JsonObject l = link.getAsJsonObject();
-            Node target = DataGen.getDataHolder().getNode(l.get("node").getAsInt());
-            byte tq = Byte.parseByte(l.get("tq").getAsString());
-            LinkType linkType = LinkType.getTypeByType(l.get("type").getAsString());
-            linkmap.add(new Link(linkType, tq, target, node));
-        });
-        return linkmap;
-    }
+    static class FormatV14 extends FormatV13 {
+
+        @Override
+        String parseModel(JsonObject system) {
+            return system.get("model2").getAsString();
+        }
+
+        @Override
+        LinkType parseLinkType(JsonObject link) {
+            return LinkType.getTypeByType(link.get("type").getAsString());
+        }
 
-    @Override
-    public boolean getAutoUpdate() {
-        return data.get("system").getAsJsonObject().get("autoupdate").getAsInt() == 1;
+        @Override
+        boolean parseAutoUpdate(JsonObject system) {
+            return system.get("autoupdate").getAsInt() == 1;
+        }
     }
 }
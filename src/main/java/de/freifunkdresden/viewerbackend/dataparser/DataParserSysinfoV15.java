@@ -29,23 +29,28 @@ import com.google.gson.JsonObject;
 
 public class DataParserSysinfoV15 extends DataParserSysinfoV14 {
 
+    private static final Format FORMAT = new FormatV15();
+
     public DataParserSysinfoV15(JsonObject data) {
-        super(data);
+        super(data, FORMAT);
     }
 
-    @Override
-    public short getClients() {
-        JsonElement clients = data.get("statistic").getAsJsonObject().get("clients");
-        if (clients.isJsonArray()) {
-            return clients.getAsJsonArray().get(1).getAsShort();
+    static class FormatV15 extends FormatV14 {
+
+        @Override
+        short parseClients(JsonObject stats) {
+            JsonElement clients = stats.get("clients");
+            if (clients.isJsonArray()) {
+                return clients.getAsJsonArray().get(1).getAsShort();
+            }
+            return super.parseClients(stats);
         }
-        return super.getClients();
-    }
 
-    @Override
-    public TrafficInfo getTraffic() {
-        TrafficInfo ti = new TrafficInfo();
-        ti.readValues(data.get("statistic").getAsJsonObject());
-        return ti;
+        @Override
+        TrafficInfo parseTraffic(JsonObject stats) {
+            TrafficInfo ti = new TrafficInfo();
+            ti.readValues(stats);
+            return ti;
+        }
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend.dataparser;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Replaces an injected {@code <!DOCTYPE html>...</html>} block with {@code {}}
+ * while the sysinfo response is read, so the JSON can be parsed from the stream.
+ */
+public class HtmlStrippingReader extends FilterReader {
+
+    private static final char[] HTML_BEGIN = "<!DOCTYPE html>".toCharArray();
+    private static final char[] HTML_END = "</html>".toCharArray();
+    private static final char[] REPLACEMENT = "{}".toCharArray();
+
+    private final char[] buffer = new char[8192];
+    private int bufferPos;
+    private int bufferLen;
+    private final char[] pending = new char[HTML_BEGIN.length + 1];
+    private int pendingPos;
+    private int pendingLen;
+    private boolean insideHtml;
+    private int matched;
+    private boolean eof;
+
+    public HtmlStrippingReader(Reader reader) {
+        super(reader);
+    }
+
+    @Override
+    public int read() throws IOException {
+        char[] c = new char[1];
+        return read(c, 0, 1) == -1 ? -1 : c[0];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            if (pendingPos < pendingLen) {
+                cbuf[off + n++] = pending[pendingPos++];
+                continue;
+            }
+            if (bufferPos == bufferLen) {
+                if (n > 0 && !in.ready()) {
+                    break;
+                }
+                if (!fill()) {
+                    break;
+                }
+                continue;
+            }
+            char c = buffer[bufferPos++];
+            if (insideHtml) {
+                matched = advance(HTML_END, c);
+                if (matched == HTML_END.length) {
+                    insideHtml = false;
+                    matched = 0;
+                    emit(REPLACEMENT, REPLACEMENT.length);
+                }
+            } else if (c == HTML_BEGIN[matched]) {
+                matched++;
+                if (matched == HTML_BEGIN.length) {
+                    insideHtml = true;
+                    matched = 0;
+                }
+            } else if (matched == 0) {
+                cbuf[off + n++] = c;
+            } else {
+                emit(HTML_BEGIN, matched);
+                if (c == HTML_BEGIN[0]) {
+                    matched = 1;
+                } else {
+                    matched = 0;
+                    pending[pendingLen++] = c;
+                }
+            }
+        }
+        return n == 0 && len > 0 ? -1 : n;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return pendingPos < pendingLen || bufferPos < bufferLen || in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private boolean fill() throws IOException {
+        if (!eof) {
+            int r = in.read(buffer, 0, buffer.length);
+            if (r > 0) {
+                bufferPos = 0;
+                bufferLen = r;
+                return true;
+            }
+            eof = true;
+        }
+        if (!insideHtml && matched > 0) {
+            //unfinished match at the end of the stream is plain content
+            emit(HTML_BEGIN, matched);
+            matched = 0;
+            return pendingLen > 0;
+        }
+        return false;
+    }
+
+    private int advance(char[] pattern, char c) {
+        if (c == pattern[matched]) {
+            return matched + 1;
+        }
+        return c == pattern[0] ? 1 : 0;
+    }
+
+    private void emit(char[] chars, int len) {
+        System.arraycopy(chars, 0, pending, 0, len);
+        pendingPos = 0;
+        pendingLen = len;
+    }
+}
@@ -24,8 +24,8 @@
 
 package de.freifunkdresden.viewerbackend.datasource;
 
-import de.freifunkdresden.viewerbackend.Airtime;
 import de.freifunkdresden.viewerbackend.DataGen;
+import de.freifunkdresden.viewerbackend.MySQL;
 import de.freifunkdresden.viewerbackend.Node;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -33,54 +33,38 @@ import org.apache.logging.log4j.Logger;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
 
 public class AirtimeSQL {
 
     private static final Logger LOGGER = LogManager.getLogger(AirtimeSQL.class);
 
-    public static Airtime getAirtime2G(Node n) {
-        return getAirtime(n, 2);
+    private AirtimeSQL() {
     }
 
-    public static Airtime getAirtime5G(Node n) {
-        return getAirtime(n, 5);
-    }
-
-    public static void updateAirtime2G(Node n) {
-        Airtime at = n.getAirtime2g();
-        if (!Airtime.EMPTY.equals(at)) {
-            updateAirtime(n.getId(), 2, at);
-        }
-    }
-
-    public static void updateAirtime5G(Node n) {
-        Airtime at = n.getAirtime5g();
-        if (!Airtime.EMPTY.equals(at)) {
-            updateAirtime(n.getId(), 5, at);
-        }
-    }
-
-    private static Airtime getAirtime(Node n, int type) {
-        try (ResultSet rs = DataGen.getDB().querySelect("SELECT * FROM airtime WHERE id = ? AND type = ?",
-                n.getId(), type)) {
-            if (rs.next()) {
-                int active = rs.getInt("active");
-                int busy = rs.getInt("busy");
-                int receive = rs.getInt("receive");
-                int transmit = rs.getInt("transmit");
-                return new Airtime(active, busy, receive, transmit);
+    /**
+     * Loads the stored airtime counters of all given nodes with streamed
+     * queries of {@link MySQL#IN_CHUNK_SIZE} ids each.
+     */
+    public static AirtimeTable loadAirtimes(Collection<Node> nodes) {
+        int[] ids = nodes.stream().mapToInt(Node::getId).toArray();
+        int maxId = Arrays.stream(ids).max().orElse(0);
+        AirtimeTable table = new AirtimeTable(Math.max(maxId, 0));
+        String query = "SELECT id, type, active, busy, receive, transmit FROM airtime WHERE id IN ("
+                + MySQL.placeholders(MySQL.IN_CHUNK_SIZE) + ")";
+        for (int from = 0; from < ids.length; from += MySQL.IN_CHUNK_SIZE) {
+            try (ResultSet rs = DataGen.getDB().queryStream(query, MySQL.inParameters(ids, from))) {
+                if (rs == null) {
+                    continue;
+                }
+                while (rs.next()) {
+                    table.put(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6));
+                }
+            } catch (SQLException ex) {
+                LOGGER.log(Level.ERROR, "DB Airtime", ex);
             }
-        } catch (SQLException ex) {
-            LOGGER.log(Level.ERROR, String.format("DB Airtime %d", n.getId()), ex);
         }
-        return Airtime.EMPTY;
-    }
-
-    private static void updateAirtime(int id, int type, Airtime at) {
-        DataGen.getDB().queryUpdate("INSERT INTO airtime SET id = ?, type = ?, active = ?, busy = ?, " +
-                        "receive = ?, transmit = ? ON DUPLICATE KEY UPDATE active = ?, busy = ?, receive = ?, " +
-                        "transmit = ?",
-                id, type, at.getActive(), at.getBusy(), at.getReceive(), at.getTransmit(), at.getActive(), at.getBusy(),
-                at.getReceive(), at.getTransmit());
+        return table;
     }
 }
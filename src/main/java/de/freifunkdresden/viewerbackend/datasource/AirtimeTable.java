@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.datasource;
+
+import de.freifunkdresden.viewerbackend.Airtime;
+
+import java.util.BitSet;
+
+/**
+ * Airtime counters of the previous run, indexed by node id and band.
+ */
+public class AirtimeTable {
+
+    private static final int FIELDS = 4;
+
+    private final int size;
+    private final int[] values;
+    private final BitSet present;
+
+    AirtimeTable(int maxId) {
+        this.size = maxId + 1;
+        this.values = new int[size * 2 * FIELDS];
+        this.present = new BitSet(size * 2);
+    }
+
+    void put(int id, int type, int active, int busy, int receive, int transmit) {
+        int slot = slot(id, type);
+        if (slot < 0) {
+            return;
+        }
+        int i = slot * FIELDS;
+        values[i] = active;
+        values[i + 1] = busy;
+        values[i + 2] = receive;
+        values[i + 3] = transmit;
+        present.set(slot);
+    }
+
+    /**
+     * @return the stored counters or {@link Airtime#EMPTY}
+     */
+    public Airtime get(int id, int type) {
+        int slot = slot(id, type);
+        if (slot < 0 || !present.get(slot)) {
+            return Airtime.EMPTY;
+        }
+        int i = slot * FIELDS;
+        return new Airtime(values[i], values[i + 1], values[i + 2], values[i + 3]);
+    }
+
+    private int slot(int id, int type) {
+        if (id < 0 || id >= size) {
+            return -1;
+        }
+        switch (type) {
+            case 2:
+                return id * 2;
+            case 5:
+                return id * 2 + 1;
+            default:
+                return -1;
+        }
+    }
+}
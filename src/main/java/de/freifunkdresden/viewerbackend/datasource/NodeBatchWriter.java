@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.datasource;
+
+import de.freifunkdresden.viewerbackend.Airtime;
+import de.freifunkdresden.viewerbackend.MySQL;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects node and airtime rows and writes them in batches. A batch is
+ * flushed when it is full or when the flush interval elapsed. Rows of a
+ * failed batch are retried one by one so each failing node is reported.
+ */
+public class NodeBatchWriter {
+
+    private static final Logger LOGGER = LogManager.getLogger(NodeBatchWriter.class);
+    private static final String UPDATE_NODE = "CALL updateNode(?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String AIRTIME_INSERT = "INSERT INTO airtime (id, type, active, busy, receive, transmit) VALUES ";
+    private static final String AIRTIME_ROW = "(?,?,?,?,?,?)";
+    private static final String AIRTIME_UPDATE = " ON DUPLICATE KEY UPDATE active = VALUES(active), "
+            + "busy = VALUES(busy), receive = VALUES(receive), transmit = VALUES(transmit)";
+
+    private final MySQL db;
+    private final int batchSize;
+    private final ScheduledExecutorService timer;
+    private final Map<Integer, String> airtimeQueries = new ConcurrentHashMap<>();
+    private List<Object[]> nodes = new ArrayList<>();
+    private List<Object[]> airtimes = new ArrayList<>();
+
+    public NodeBatchWriter(MySQL db, int batchSize, long flushInterval) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-batch-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::scheduledFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a row for {@code updateNode}, the first value is the node id.
+     */
+    public void addNode(Object... values) {
+        List<Object[]> full = null;
+        synchronized (this) {
+            nodes.add(values);
+            if (nodes.size() >= batchSize) {
+                full = nodes;
+                nodes = new ArrayList<>(batchSize);
+            }
+        }
+        if (full != null) {
+            writeNodes(full);
+        }
+    }
+
+    public void addAirtime(int id, int type, Airtime at) {
+        if (Airtime.EMPTY.equals(at)) {
+            return;
+        }
+        List<Object[]> full = null;
+        synchronized (this) {
+            airtimes.add(new Object[]{id, type, at.getActive(), at.getBusy(), at.getReceive(), at.getTransmit()});
+            if (airtimes.size() >= batchSize) {
+                full = airtimes;
+                airtimes = new ArrayList<>(batchSize);
+            }
+        }
+        if (full != null) {
+            writeAirtimes(full);
+        }
+    }
+
+    public void flush() {
+        List<Object[]> n;
+        List<Object[]> a;
+        synchronized (this) {
+            n = nodes;
+            a = airtimes;
+            nodes = new ArrayList<>(batchSize);
+            airtimes = new ArrayList<>(batchSize);
+        }
+        if (!n.isEmpty()) {
+            writeNodes(n);
+        }
+        if (!a.isEmpty()) {
+            writeAirtimes(a);
+        }
+    }
+
+    /**
+     * Stops the flush timer, waits for a running timer flush and writes
+     * everything still queued.
+     */
+    public void close() {
+        timer.shutdown();
+        boolean interrupted = false;
+        try {
+            if (!timer.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.log(Level.WARN, "Timed out waiting for the running batch flush");
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        }
+        flush();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scheduledFlush() {
+        //an exception would cancel all following runs
+        try {
+            flush();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.ERROR, "Batch flush failed", ex);
+        }
+    }
+
+    private void writeNodes(List<Object[]> rows) {
+        try {
+            int[] counts = db.updateBatch(UPDATE_NODE, rows);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == Statement.EXECUTE_FAILED) {
+                    retryNode(rows.get(i));
+                }
+            }
+        } catch (BatchUpdateException ex) {
+            int[] counts = ex.getUpdateCounts();
+            for (int i = 0; i < rows.size(); i++) {
+                if (counts == null || i >= counts.length || counts[i] == Statement.EXECUTE_FAILED) {
+                    retryNode(rows.get(i));
+                }
+            }
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARN, "Node batch failed, retrying rows one by one: {}", ex.getLocalizedMessage());
+            rows.forEach(this::retryNode);
+        }
+    }
+
+    private void retryNode(Object[] row) {
+        try {
+            db.update(UPDATE_NODE, row);
+        } catch (SQLException ex) {
+            LOGGER.log(Level.ERROR, "Failed to update node {}: {}", row[0], ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Writes the rows in multi-row inserts of exactly {@code batchSize} or a
+     * power of two rows, so only a few distinct statements end up in the
+     * connection's statement cache.
+     */
+    private void writeAirtimes(List<Object[]> rows) {
+        int from = 0;
+        while (from < rows.size()) {
+            int remaining = rows.size() - from;
+            int count = remaining >= batchSize ? batchSize : Integer.highestOneBit(remaining);
+            writeAirtimeRows(rows.subList(from, from + count));
+            from += count;
+        }
+    }
+
+    private void writeAirtimeRows(List<Object[]> rows) {
+        String query = airtimeQueries.computeIfAbsent(rows.size(), NodeBatchWriter::airtimeQuery);
+        Object[] values = new Object[rows.size() * 6];
+        for (int i = 0; i < rows.size(); i++) {
+            System.arraycopy(rows.get(i), 0, values, i * 6, 6);
+        }
+        try {
+            db.update(query, values);
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARN, "Airtime batch failed, retrying rows one by one: {}", ex.getLocalizedMessage());
+            String single = airtimeQueries.computeIfAbsent(1, NodeBatchWriter::airtimeQuery);
+            for (Object[] row : rows) {
+                try {
+                    db.update(single, row);
+                } catch (SQLException e) {
+                    LOGGER.log(Level.ERROR, "Failed to update airtime {}/{}: {}", row[0], row[1],
+                            e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    private static String airtimeQuery(int rows) {
+        StringBuilder query = new StringBuilder(AIRTIME_INSERT.length() + rows * 14 + AIRTIME_UPDATE.length());
+        query.append(AIRTIME_INSERT);
+        for (int i = 0; i < rows; i++) {
+            query.append(i == 0 ? "" : ",").append(AIRTIME_ROW);
+        }
+        return query.append(AIRTIME_UPDATE).toString();
+    }
+}
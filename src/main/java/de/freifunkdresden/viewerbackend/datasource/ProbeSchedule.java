@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend.datasource;
+
+import com.google.gson.JsonObject;
+import de.freifunkdresden.viewerbackend.Node;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ProbeSchedule {
+
+    private static final Logger LOGGER = LogManager.getLogger(ProbeSchedule.class);
+
+    private final Map<Integer, Integer> failures = new ConcurrentHashMap<>();
+    private final int maxInterval;
+    private final long recentMillis;
+    private long cycle;
+
+    public ProbeSchedule(int maxInterval, long recentMillis) {
+        this.maxInterval = maxInterval;
+        this.recentMillis = recentMillis;
+    }
+
+    public boolean shouldProbe(Node n) {
+        int f = failures.getOrDefault(n.getId(), 0);
+        if (f < 2) {
+            return true;
+        }
+        //before the crawl the last seen value comes from the api
+        if (n.getLastSeen() > System.currentTimeMillis() - recentMillis) {
+            return true;
+        }
+        int interval = Math.min(maxInterval, 1 << Math.min(f - 1, 30));
+        return (cycle + n.getId()) % interval == 0;
+    }
+
+    public void success(Node n) {
+        failures.remove(n.getId());
+    }
+
+    public void failure(Node n) {
+        failures.merge(n.getId(), 1, Integer::sum);
+    }
+
+    public void load(Path file) {
+        JsonObject json = NodeStateFile.load(file, "Probe schedule");
+        if (json == null) {
+            return;
+        }
+        try {
+            cycle = json.get("cycle").getAsLong() + 1;
+            json.get("failures").getAsJsonObject().entrySet()
+                    .forEach(e -> failures.put(Integer.parseInt(e.getKey()), e.getValue().getAsInt()));
+        } catch (IllegalStateException | NullPointerException | NumberFormatException ex) {
+            LOGGER.log(Level.WARN, "Probe schedule couldn't be loaded", ex);
+        }
+    }
+
+    public void retain(Set<Integer> ids) {
+        NodeStateFile.retain(failures, ids);
+    }
+
+    public void save(Path file) {
+        JsonObject json = new JsonObject();
+        json.addProperty("cycle", cycle);
+        JsonObject f = new JsonObject();
+        failures.forEach((id, count) -> f.addProperty(String.valueOf(id), count));
+        json.add("failures", f);
+        NodeStateFile.save(file, "Probe schedule", json);
+    }
+}
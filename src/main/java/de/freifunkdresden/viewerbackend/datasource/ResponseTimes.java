@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend.datasource;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ResponseTimes {
+
+    private static final Logger LOGGER = LogManager.getLogger(ResponseTimes.class);
+    private static final int SAMPLES = 16;
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final int MIN_CONNECT_TIMEOUT = 1500;
+    private static final int MIN_READ_TIMEOUT = 3000;
+
+    private final Map<Integer, NodeResponseTime> times = new ConcurrentHashMap<>();
+    private final int connectTimeoutCeiling;
+    private final int readTimeoutCeiling;
+
+    public ResponseTimes(int connectTimeoutCeiling, int readTimeoutCeiling) {
+        this.connectTimeoutCeiling = connectTimeoutCeiling;
+        this.readTimeoutCeiling = readTimeoutCeiling;
+    }
+
+    public void record(int id, long millis) {
+        times.computeIfAbsent(id, i -> new NodeResponseTime()).add(millis);
+    }
+
+    public int getConnectTimeout(int id) {
+        NodeResponseTime t = times.get(id);
+        if (t == null) {
+            return connectTimeoutCeiling;
+        }
+        return clamp(2 * t.getTimeoutBase(), MIN_CONNECT_TIMEOUT, connectTimeoutCeiling);
+    }
+
+    public int getReadTimeout(int id) {
+        NodeResponseTime t = times.get(id);
+        if (t == null) {
+            return readTimeoutCeiling;
+        }
+        return clamp(3 * t.getTimeoutBase(), MIN_READ_TIMEOUT, readTimeoutCeiling);
+    }
+
+    public void load(Path file) {
+        JsonObject json = NodeStateFile.load(file, "Response times");
+        if (json == null) {
+            return;
+        }
+        try {
+            json.entrySet().forEach(e -> {
+                JsonObject node = e.getValue().getAsJsonObject();
+                JsonArray s = node.get("samples").getAsJsonArray();
+                long[] samples = new long[s.size()];
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = s.get(i).getAsLong();
+                }
+                if (samples.length == 0) {
+                    return;
+                }
+                times.put(Integer.parseInt(e.getKey()), new NodeResponseTime(node.get("ewma").getAsDouble(), samples));
+            });
+        } catch (RuntimeException ex) {
+            //missing or mistyped fields, start without history
+            times.clear();
+            LOGGER.log(Level.WARN, "Response times couldn't be loaded", ex);
+        }
+    }
+
+    public void retain(Set<Integer> ids) {
+        NodeStateFile.retain(times, ids);
+    }
+
+    public void save(Path file) {
+        JsonObject json = new JsonObject();
+        times.forEach((id, t) -> json.add(String.valueOf(id), t.toJson()));
+        NodeStateFile.save(file, "Response times", json);
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    private static class NodeResponseTime {
+
+        private final long[] samples = new long[SAMPLES];
+        private int count;
+        private double ewma;
+
+        NodeResponseTime() {
+        }
+
+        NodeResponseTime(double ewma, long[] samples) {
+            this.ewma = ewma;
+            for (long s : samples) {
+                push(s);
+            }
+        }
+
+        synchronized void add(long millis) {
+            ewma = count == 0 ? millis : EWMA_WEIGHT * millis + (1 - EWMA_WEIGHT) * ewma;
+            push(millis);
+        }
+
+        synchronized long getTimeoutBase() {
+            return Math.max(Math.round(ewma), getP95());
+        }
+
+        synchronized JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("ewma", ewma);
+            JsonArray s = new JsonArray();
+            int n = Math.min(count, SAMPLES);
+            for (int i = n; i > 0; i--) {
+                s.add(samples[(count - i) % SAMPLES]);
+            }
+            json.add("samples", s);
+            return json;
+        }
+
+        private void push(long millis) {
+            samples[count % SAMPLES] = millis;
+            count++;
+        }
+
+        private long getP95() {
+            long[] sorted = Arrays.copyOf(samples, Math.min(count, SAMPLES));
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        }
+    }
+}
@@ -28,8 +28,18 @@ public class MalformedSysinfoException extends Exception {
 
     private static final long serialVersionUID = 1L;
 
+    public MalformedSysinfoException() {
+    }
+
+    public MalformedSysinfoException(Throwable cause) {
+        super(cause);
+    }
+
     @Override
     public String getMessage() {
+        if (getCause() != null) {
+            return String.format("Malformed sysinfo (%s)", getCause());
+        }
         return "Malformed sysinfo";
     }
 
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.json;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-serialized per-node JSON fragments, keyed by a hash of the values they
+ * were rendered from. Only fragments requested during the current run are
+ * saved again, so removed nodes drop out after one cycle.
+ */
+class FragmentCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(FragmentCache.class);
+    private static final int FORMAT = 3;
+
+    private final Map<Integer, Fragment> previous = new ConcurrentHashMap<>();
+    private final Map<Integer, Fragment> current = new ConcurrentHashMap<>();
+
+    String get(int id, long key) {
+        Fragment f = current.get(id);
+        if (f == null) {
+            f = previous.get(id);
+        }
+        if (f != null && f.key == key) {
+            current.put(id, f);
+            return f.json;
+        }
+        return null;
+    }
+
+    void put(int id, long key, String json) {
+        current.put(id, new Fragment(key, json));
+    }
+
+    void load(Path file) {
+        if (Files.notExists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                long key = in.readLong();
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid fragment length " + length);
+                }
+                byte[] json = new byte[length];
+                in.readFully(json);
+                previous.put(id, new Fragment(key, new String(json, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException ex) {
+            previous.clear();
+            LOGGER.log(Level.WARN, "Fragment cache couldn't be loaded", ex);
+        }
+    }
+
+    void save(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FORMAT);
+            out.writeInt(current.size());
+            for (Map.Entry<Integer, Fragment> e : current.entrySet()) {
+                byte[] json = e.getValue().json.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(e.getKey());
+                out.writeLong(e.getValue().key);
+                out.writeInt(json.length);
+                out.write(json);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Fragment cache couldn't be saved", ex);
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Fragment cache couldn't be saved", ex);
+        }
+    }
+
+    private static final class Fragment {
+
+        private final long key;
+        private final String json;
+
+        private Fragment(long key, String json) {
+            this.key = key;
+            this.json = json;
+        }
+    }
+}
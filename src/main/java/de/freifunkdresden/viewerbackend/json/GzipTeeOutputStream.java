@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the plain output and its gzip compressed sidecar in one pass.
+ */
+class GzipTeeOutputStream extends OutputStream {
+
+    private final OutputStream plain;
+    private final GZIPOutputStream gzip;
+
+    GzipTeeOutputStream(OutputStream plain, OutputStream compressed, int level) throws IOException {
+        this.plain = plain;
+        this.gzip = new GZIPOutputStream(compressed, 65536) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        plain.write(b);
+        gzip.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        plain.write(b, off, len);
+        gzip.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        plain.flush();
+        gzip.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            gzip.close();
+        } finally {
+            plain.close();
+        }
+    }
+}
@@ -24,116 +24,644 @@
 package de.freifunkdresden.viewerbackend.json;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import de.freifunkdresden.viewerbackend.Link;
 import de.freifunkdresden.viewerbackend.Node;
+import de.freifunkdresden.viewerbackend.exception.JsonGenerationException;
+import de.freifunkdresden.viewerbackend.stats.StatsSQL;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 public class JsonFileGen {
 
-    private final DateFormat dateMesh = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-    private final DateFormat dateHop = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-    private final Gson gson = new Gson();
-    private final JsonArray hopGlassNodes = new JsonArray();
-    private final JsonArray graphNodes = new JsonArray();
-    private final JsonArray graphLinks = new JsonArray();
-    private final JsonArray meshViewerNodes = new JsonArray();
-    private final JsonArray meshViewerLinks = new JsonArray();
+    private static final Logger LOGGER = LogManager.getLogger(JsonFileGen.class);
+    private static final int CHUNK_SIZE = 256;
+    private static final int WINDOW = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+    private static final String MANIFEST = "manifest.json";
+    /**
+     * Files whose content can be the same in two runs. The others carry per
+     * run values like lastseen and uptime and are always replaced.
+     */
+    private static final Set<String> STABLE_FILES = Set.of("graph.json", "nodeinfo.json");
+
+    private final DateTimeFormatter dateMesh = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ")
+            .withZone(ZoneId.systemDefault());
+    private final DateTimeFormatter dateHop = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss")
+            .withZone(ZoneOffset.UTC);
+    private final List<Node> displayed;
+    private final List<NodeProjection> nodes;
+    private final List<Link> links;
     private final Map<Node, Integer> nodeIds = new HashMap<>();
     private final Path path;
+    private int gzipLevel = -1;
+    private boolean manifest;
+    private boolean splitNodes;
+    private Path hashFile;
+    private Path fragmentFile;
+    private FragmentCache fragmentCache;
+    private Path deltaFile;
+    private NodeDelta delta;
+    private final Map<String, String> previousHashes = new HashMap<>();
+    private final Map<String, String> contentHashes = new ConcurrentHashMap<>();
 
-    public JsonFileGen(Path path, Collection<Node> nodes, Collection<Map<Integer, Link>> links) {
+    public JsonFileGen(Path path, Collection<Node> nodes, Collection<Link> links) {
         this.path = path;
-        dateHop.setTimeZone(TimeZone.getTimeZone("UTC"));
-        Iterator<Node> it = nodes.stream().filter(Node::isDisplayed).iterator();
-        for (int i = 0; it.hasNext(); i++) {
-            Node node = it.next();
-            hopGlassNodes.add(JsonNodeGen.getJsonObject(node, dateHop));
-            meshViewerNodes.add(JsonNodeGen.getMeshViewerObj(node, dateMesh));
-            JsonObject jsonNode = new JsonObject();
-            jsonNode.addProperty("node_id", String.valueOf(node.getId()));
-            jsonNode.addProperty("id", String.valueOf(node.getId()));
-            jsonNode.addProperty("seq", i);
-            graphNodes.add(jsonNode);
-            nodeIds.put(node, i);
-        }
-        links.forEach(map -> map.values().stream()
+        this.displayed = new ArrayList<>(nodes);
+        for (int i = 0; i < displayed.size(); i++) {
+            nodeIds.put(displayed.get(i), i);
+        }
+        this.nodes = displayed.parallelStream()
+                .map(JsonFileGen::project)
+                .collect(Collectors.toList());
+        this.links = links.stream()
                 .filter(link -> link.getSource().isDisplayed() && link.getTarget().isDisplayed())
                 .filter(link -> link.getSource().isOnline() && link.getTarget().isOnline())
-                .forEach(link -> {
-                    JsonObject jsonLink;
-                    //MeshViewer
-                    jsonLink = new JsonObject();
-                    jsonLink.addProperty("source", link.getSource().getFakeId());
-                    jsonLink.addProperty("target", link.getTarget().getFakeId());
-                    jsonLink.addProperty("source_tq", Link.convertToMeshV(link.getSourceTq()));
-                    jsonLink.addProperty("target_tq", Link.convertToMeshV(link.getTargetTq()));
-                    jsonLink.addProperty("type", link.getType().getMeshviewer());
-                    jsonLink.addProperty("source_addr", link.getSource().getFakeMac());
-                    jsonLink.addProperty("target_addr", link.getTarget().getFakeMac());
-                    meshViewerLinks.add(jsonLink);
-                    //HopGlass
-                    Integer source = nodeIds.get(link.getSource());
-                    Integer target = nodeIds.get(link.getTarget());
-                    jsonLink = new JsonObject();
-                    jsonLink.addProperty("source", source);
-                    jsonLink.addProperty("target", target);
-                    jsonLink.addProperty("tq", Link.convertToHop(link.getSourceTq()));
-                    jsonLink.addProperty("type", link.getType().getHopglass());
-                    graphLinks.add(jsonLink);
-                    if (link.getTargetTq() != -1) {
-                        jsonLink = new JsonObject();
-                        jsonLink.addProperty("source", target);
-                        jsonLink.addProperty("target", source);
-                        jsonLink.addProperty("tq", Link.convertToHop(link.getTargetTq()));
-                        jsonLink.addProperty("type", link.getType().getHopglass());
-                        graphLinks.add(jsonLink);
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Enables {@code .gz} sidecars next to every generated file, compressed
+     * with the given deflate level (0-9) while the plain file is written.
+     */
+    public void setGzipLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid gzip level " + level);
+        }
+        this.gzipLevel = level;
+    }
+
+    /**
+     * Writes a manifest.json with size and SHA-256 of every generated file,
+     * usable as strong ETags.
+     */
+    public void setManifest(boolean manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Remembers a hash of the content (without its timestamp) of graph.json
+     * and nodeinfo.json in the given file and keeps the existing file if its
+     * content did not change since the previous run. The other files contain
+     * per-run values and are always replaced.
+     */
+    public void setHashFile(Path file) {
+        this.hashFile = file;
+        previousHashes.clear();
+        if (Files.notExists(file)) {
+            return;
+        }
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+            json.entrySet().forEach(e -> previousHashes.put(e.getKey(), e.getValue().getAsString()));
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException | IOException ex) {
+            LOGGER.log(Level.WARN, "Content hashes couldn't be loaded", ex);
+        }
+    }
+
+    /**
+     * Reuses the pre-serialized HopGlass nodeinfo blocks stored in the given
+     * file by the previous run for nodes whose static data did not change.
+     */
+    public void setFragmentCache(Path file) {
+        this.fragmentFile = file;
+        this.fragmentCache = new FragmentCache();
+        fragmentCache.load(file);
+    }
+
+    /**
+     * Additionally writes nodeinfo.json with the static HopGlass node data and
+     * nodestats.json with statistics and flags, both keyed by node id.
+     */
+    public void setSplitNodes(boolean splitNodes) {
+        this.splitNodes = splitNodes;
+    }
+
+    /**
+     * Writes nodes-delta.json with the MeshViewer nodes added, changed or
+     * removed since the previous generation, whose state is kept in the given
+     * file, plus the per-run statistics of all nodes. meshviewer.json gets
+     * the matching sequence number.
+     */
+    public void setDeltaFile(Path file) {
+        this.deltaFile = file;
+        this.delta = new NodeDelta();
+        delta.load(file);
+    }
+
+    /**
+     * Writes nodes.json, graph.json and meshviewer.json (and nodeinfo.json and
+     * nodestats.json if enabled) concurrently and moves them into place as one
+     * generation.
+     */
+    public void genAll() throws IOException, JsonGenerationException {
+        if (splitNodes) {
+            generate(this::writeNodes, this::writeGraph, this::writeMeshViewer, this::writeNodeInfo,
+                    this::writeNodeStats);
+        } else {
+            generate(this::writeNodes, this::writeGraph, this::writeMeshViewer);
+        }
+    }
+
+    private void generate(GenerationStep... steps) throws IOException, JsonGenerationException {
+        OutputGeneration generation = new OutputGeneration(path);
+        ExecutorService writers = Executors.newFixedThreadPool(steps.length);
+        try {
+            CompletableFuture.allOf(Arrays.stream(steps)
+                    .map(step -> CompletableFuture.runAsync(unchecked(step, generation), writers))
+                    .toArray(CompletableFuture[]::new)
+            ).join();
+            if (manifest && !generation.isEmpty()) {
+                writeManifest(generation);
+            }
+            generation.commit();
+            saveHashes();
+            if (fragmentCache != null) {
+                fragmentCache.save(fragmentFile);
+            }
+            if (delta != null) {
+                delta.save(deltaFile);
+            }
+        } catch (IOException ex) {
+            generation.discard();
+            throw ex;
+        } catch (RuntimeException ex) {
+            generation.discard();
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new JsonGenerationException(cause);
+        } finally {
+            writers.shutdown();
+        }
+    }
+
+    private void writeNodes(OutputGeneration generation) throws IOException {
+        MessageDigest content = contentDigest("nodes.json");
+        Writer out = newWriter(generation, "nodes.json", content);
+        try (JsonWriter w = newJsonWriter(out)) {
+            w.beginObject();
+            w.name("nodes").beginArray();
+            render(nodes, (buf, node) -> writeNullable(buf,
+                    node != null ? JsonNodeGen.getJsonObject(node, dateHop, fragmentCache) : null),
+                    chunk -> writeChunk(w, content, chunk));
+            endSection(content);
+            w.endArray();
+            w.name("timestamp").value(dateHop.format(Instant.now()));
+            w.name("version").value(2);
+            w.endObject();
+        }
+        writeIfChanged(generation, "nodes.json", content, out);
+    }
+
+    private void writeNodeInfo(OutputGeneration generation) throws IOException {
+        writeKeyedFile(generation, "nodeinfo.json", (w, node) -> writeKeyed(w, node,
+                node != null ? JsonNodeGen.getNodeInfo(node, fragmentCache) : null));
+    }
+
+    private void writeNodeStats(OutputGeneration generation) throws IOException {
+        writeKeyedFile(generation, "nodestats.json", (w, node) -> writeKeyed(w, node,
+                node != null ? JsonNodeGen.getNodeStats(node, dateHop) : null));
+    }
+
+    /**
+     * Writes {"nodes":{"id":{...},...},"timestamp":"...","version":1}. The
+     * chunks are object members, which JsonWriter cannot splice, so the
+     * surrounding structure is written directly.
+     */
+    private void writeKeyedFile(OutputGeneration generation, String name, ElementWriter<NodeProjection> writer)
+            throws IOException {
+        MessageDigest content = contentDigest(name);
+        Writer out = newWriter(generation, name, content);
+        try (out) {
+            out.write("{\"nodes\":{");
+            boolean[] first = {true};
+            render(nodes, writer, chunk -> {
+                hash(content, chunk);
+                if (!chunk.isEmpty()) {
+                    if (!first[0]) {
+                        out.write(',');
                     }
-                }));
-    }
-
-    public void genNodes() throws IOException {
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.add("nodes", hopGlassNodes);
-        jsonObject.addProperty("timestamp", dateHop.format(new Date()));
-        jsonObject.addProperty("version", 2);
-        Path fp = path.resolve("nodes.json");
-        Files.writeString(fp, gson.toJson(jsonObject), StandardCharsets.UTF_8);
-    }
-
-    public void genGraph() throws IOException {
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("version", 1);
-        JsonObject batadv = new JsonObject();
-        batadv.addProperty("multigraph", false);
-        batadv.addProperty("directed", true);
-        batadv.add("graph", new JsonArray());
-        batadv.add("nodes", graphNodes);
-        batadv.add("links", graphLinks);
-        jsonObject.add("batadv", batadv);
-        Path fp = path.resolve("graph.json");
-        Files.writeString(fp, gson.toJson(jsonObject), StandardCharsets.UTF_8);
-    }
-
-    public void genMeshViewer() throws IOException {
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("timestamp", dateMesh.format(new Date()));
-        jsonObject.add("nodes", meshViewerNodes);
-        jsonObject.add("links", meshViewerLinks);
-        Path fp = path.resolve("meshviewer.json");
-        Files.writeString(fp, gson.toJson(jsonObject), StandardCharsets.UTF_8);
+                    out.write(chunk);
+                    first[0] = false;
+                }
+            });
+            endSection(content);
+            out.write("},\"timestamp\":\"");
+            out.write(dateHop.format(Instant.now()));
+            out.write("\",\"version\":1}");
+        }
+        writeIfChanged(generation, name, content, out);
+    }
+
+    private void writeGraph(OutputGeneration generation) throws IOException {
+        MessageDigest content = contentDigest("graph.json");
+        Writer out = newWriter(generation, "graph.json", content);
+        try (JsonWriter w = newJsonWriter(out)) {
+            w.beginObject();
+            w.name("version").value(1);
+            w.name("batadv").beginObject();
+            w.name("multigraph").value(false);
+            w.name("directed").value(true);
+            w.name("graph").beginArray().endArray();
+            w.name("nodes").beginArray();
+            render(displayed, this::writeGraphNode, chunk -> writeChunk(w, content, chunk));
+            endSection(content);
+            w.endArray();
+            w.name("links").beginArray();
+            render(links, this::writeGraphLinks, chunk -> writeChunk(w, content, chunk));
+            endSection(content);
+            w.endArray();
+            w.endObject();
+            w.endObject();
+        }
+        writeIfChanged(generation, "graph.json", content, out);
+    }
+
+    private void writeMeshViewer(OutputGeneration generation) throws IOException {
+        if (delta != null) {
+            delta.update(nodes, dateMesh);
+            try (JsonWriter w = newJsonWriter(generation, "nodes-delta.json")) {
+                delta.write(w, dateMesh.format(Instant.now()));
+            }
+        }
+        MessageDigest content = contentDigest("meshviewer.json");
+        Writer out = newWriter(generation, "meshviewer.json", content);
+        try (JsonWriter w = newJsonWriter(out)) {
+            w.beginObject();
+            w.name("timestamp").value(dateMesh.format(Instant.now()));
+            if (delta != null) {
+                w.name("sequence").value(delta.getSequence());
+            }
+            w.name("nodes").beginArray();
+            render(nodes, (buf, node) -> writeNullable(buf,
+                    node != null ? JsonNodeGen.getMeshViewerObj(node, dateMesh) : null),
+                    chunk -> writeChunk(w, content, chunk));
+            endSection(content);
+            w.endArray();
+            w.name("links").beginArray();
+            render(links, this::writeMeshViewerLink, chunk -> writeChunk(w, content, chunk));
+            endSection(content);
+            w.endArray();
+            w.endObject();
+        }
+        writeIfChanged(generation, "meshviewer.json", content, out);
+    }
+
+    private void writeGraphNode(Writer out, Node node) throws IOException {
+        String id = String.valueOf(node.getId());
+        JsonWriter w = newJsonWriter(out);
+        w.beginObject();
+        w.name("node_id").value(id);
+        w.name("id").value(id);
+        w.name("seq").value(nodeIds.get(node));
+        w.endObject();
+    }
+
+    private void writeGraphLinks(Writer w, Link link) throws IOException {
+        Integer source = nodeIds.get(link.getSource());
+        Integer target = nodeIds.get(link.getTarget());
+        writeGraphLink(newJsonWriter(w), source, target, link.getSourceTq(), link);
+        if (link.getTargetTq() != -1) {
+            w.write(',');
+            writeGraphLink(newJsonWriter(w), target, source, link.getTargetTq(), link);
+        }
+    }
+
+    private void writeMeshViewerLink(Writer out, Link link) throws IOException {
+        NodeProjection source = projection(link.getSource());
+        NodeProjection target = projection(link.getTarget());
+        JsonWriter w = newJsonWriter(out);
+        w.beginObject();
+        w.name("source").value(source != null ? source.fakeId : link.getSource().getFakeId());
+        w.name("target").value(target != null ? target.fakeId : link.getTarget().getFakeId());
+        w.name("source_tq").value(Float.valueOf(Link.convertToMeshV(link.getSourceTq())));
+        w.name("target_tq").value(Float.valueOf(Link.convertToMeshV(link.getTargetTq())));
+        w.name("type").value(link.getType().getMeshviewer());
+        w.name("source_addr").value(source != null ? source.fakeMac : link.getSource().getFakeMac());
+        w.name("target_addr").value(target != null ? target.fakeMac : link.getTarget().getFakeMac());
+        w.endObject();
+    }
+
+    private NodeProjection projection(Node node) {
+        Integer seq = nodeIds.get(node);
+        return seq != null ? nodes.get(seq) : null;
+    }
+
+    private static NodeProjection project(Node node) {
+        try {
+            return new NodeProjection(node);
+        } catch (Exception e) {
+            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", node.getId()), e);
+        }
+        return null;
+    }
+
+    private static void writeGraphLink(JsonWriter w, Integer source, Integer target, byte tq, Link link) throws IOException {
+        w.beginObject();
+        w.name("source").value(source);
+        w.name("target").value(target);
+        w.name("tq").value(Float.valueOf(Link.convertToHop(tq)));
+        w.name("type").value(link.getType().getHopglass());
+        w.endObject();
+    }
+
+    private static void writeKeyed(Writer w, NodeProjection node, String fragment) throws IOException {
+        if (fragment != null) {
+            w.write('"');
+            w.write(node.nodeId);
+            w.write("\":");
+            w.write(fragment);
+        }
+    }
+
+    private static void writeNullable(Writer w, String fragment) throws IOException {
+        w.write(fragment != null ? fragment : "null");
+    }
+
+    /**
+     * Renders the elements in fixed size chunks on the common fork-join pool.
+     * Each chunk holds the comma separated output of its slice, elements that
+     * write nothing are left out. The chunks are passed to the consumer in
+     * element order while at most {@code WINDOW} of them are rendered ahead,
+     * so the output does not depend on scheduling and the file is never held
+     * in memory as a whole.
+     */
+    private static <T> void render(List<T> elements, ElementWriter<T> writer, ChunkConsumer consumer)
+            throws IOException {
+        int count = (elements.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Deque<CompletableFuture<String>> pending = new ArrayDeque<>(WINDOW);
+        int next = 0;
+        try {
+            while (next < count || !pending.isEmpty()) {
+                while (next < count && pending.size() < WINDOW) {
+                    int c = next++;
+                    pending.add(CompletableFuture.supplyAsync(() -> renderChunk(elements, writer, c)));
+                }
+                consumer.accept(pending.remove().join());
+            }
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        } finally {
+            pending.forEach(f -> f.cancel(false));
+        }
+    }
+
+    private static <T> String renderChunk(List<T> elements, ElementWriter<T> writer, int c) {
+        StringWriter sw = new StringWriter(CHUNK_SIZE * 512);
+        int end = Math.min(elements.size(), (c + 1) * CHUNK_SIZE);
+        StringBuffer buffer = sw.getBuffer();
+        try {
+            for (int i = c * CHUNK_SIZE; i < end; i++) {
+                int mark = buffer.length();
+                if (mark > 0) {
+                    sw.write(',');
+                }
+                int start = buffer.length();
+                writer.write(sw, elements.get(i));
+                if (buffer.length() == start) {
+                    buffer.setLength(mark);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return sw.toString();
+    }
+
+    private static void writeChunk(JsonWriter w, MessageDigest content, String chunk) throws IOException {
+        hash(content, chunk);
+        if (!chunk.isEmpty()) {
+            w.jsonValue(chunk);
+        }
+    }
+
+    private static void hash(MessageDigest content, String chunk) {
+        if (content != null) {
+            content.update(chunk.getBytes(StandardCharsets.UTF_8));
+            content.update((byte) ',');
+        }
+    }
+
+    private static void endSection(MessageDigest content) {
+        if (content != null) {
+            content.update((byte) 0);
+        }
+    }
+
+    private void writeManifest(OutputGeneration generation) throws IOException {
+        Map<String, JsonObject> files = new TreeMap<>();
+        Path manifestFile = path.resolve(MANIFEST);
+        if (Files.exists(manifestFile)) {
+            try (Reader r = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+                JsonObject previous = JsonParser.parseReader(r).getAsJsonObject().getAsJsonObject("files");
+                previous.entrySet().stream()
+                        .filter(e -> !generation.isDeleted(e.getKey()) && Files.exists(path.resolve(e.getKey())))
+                        .forEach(e -> files.put(e.getKey(), e.getValue().getAsJsonObject()));
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARN, "Ignoring unreadable " + MANIFEST, ex);
+            }
+        }
+        for (OutputGeneration.PendingFile file : generation.getFiles()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("size", file.getSize());
+            entry.addProperty("sha256", file.getSha256());
+            files.put(file.getName(), entry);
+        }
+        try (JsonWriter w = newJsonWriter(new BufferedWriter(new OutputStreamWriter(
+                generation.create(MANIFEST), StandardCharsets.UTF_8)))) {
+            w.beginObject();
+            w.name("timestamp").value(dateMesh.format(Instant.now()));
+            w.name("files").beginObject();
+            for (Map.Entry<String, JsonObject> e : files.entrySet()) {
+                w.name(e.getKey()).beginObject();
+                w.name("size").value(e.getValue().get("size").getAsLong());
+                w.name("sha256").value(e.getValue().get("sha256").getAsString());
+                w.endObject();
+            }
+            w.endObject();
+            w.endObject();
+        }
+    }
+
+    /**
+     * Writer for the file. Files compared with the previous run are rendered
+     * into memory first, see {@link #writeIfChanged}.
+     */
+    private Writer newWriter(OutputGeneration generation, String name, MessageDigest content) throws IOException {
+        return content != null ? new StringWriter() : newWriter(generation, name);
+    }
+
+    /**
+     * Compares the hash of the rendered content, which is everything except
+     * the timestamp, with the previous run. Only if it differs, or the file
+     * no longer exists in the expected form, the buffered document is written
+     * to the generation; otherwise the existing file stays in place.
+     */
+    private void writeIfChanged(OutputGeneration generation, String name, MessageDigest content, Writer rendered)
+            throws IOException {
+        if (content == null) {
+            StatsSQL.addJsonFile(name, true);
+            return;
+        }
+        String hash = toHex(content.digest());
+        contentHashes.put(name, hash);
+        String sidecar = name + ".gz";
+        boolean unchanged = hash.equals(previousHashes.get(name))
+                && Files.exists(path.resolve(name))
+                && (gzipLevel < 0 || Files.exists(path.resolve(sidecar)));
+        if (unchanged) {
+            if (gzipLevel < 0) {
+                generation.delete(sidecar);
+            }
+            LOGGER.log(Level.INFO, "{} unchanged, not replaced", name);
+        } else {
+            try (Writer out = newWriter(generation, name)) {
+                out.write(rendered.toString());
+            }
+        }
+        StatsSQL.addJsonFile(name, !unchanged);
+    }
+
+    /**
+     * Content digest for the file, or null if the file is not compared with
+     * the previous run.
+     */
+    private MessageDigest contentDigest(String name) {
+        return hashFile != null && STABLE_FILES.contains(name) ? newDigest() : null;
+    }
+
+    private void saveHashes() {
+        if (hashFile == null) {
+            return;
+        }
+        JsonObject json = new JsonObject();
+        previousHashes.keySet().retainAll(STABLE_FILES);
+        previousHashes.putAll(contentHashes);
+        previousHashes.forEach(json::addProperty);
+        try {
+            Files.writeString(hashFile, new Gson().toJson(json), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Content hashes couldn't be saved", ex);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static Runnable unchecked(GenerationStep step, OutputGeneration generation) {
+        return () -> {
+            try {
+                step.write(generation);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+    }
+
+    private JsonWriter newJsonWriter(OutputGeneration generation, String name) throws IOException {
+        return newJsonWriter(newWriter(generation, name));
+    }
+
+    private Writer newWriter(OutputGeneration generation, String name) throws IOException {
+        String sidecar = name + ".gz";
+        OutputStream out = generation.create(name);
+        if (gzipLevel < 0) {
+            generation.delete(sidecar);
+        } else {
+            try {
+                out = new GzipTeeOutputStream(out, generation.create(sidecar), gzipLevel);
+            } catch (IOException ex) {
+                out.close();
+                throw ex;
+            }
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+    }
+
+    /**
+     * Writer with the settings Gson uses for {@code toJson}, so the streamed
+     * files stay byte-for-byte identical to the serialized trees.
+     */
+    static JsonWriter newJsonWriter(Writer writer) {
+        JsonWriter w = new JsonWriter(writer);
+        w.setLenient(true);
+        w.setHtmlSafe(true);
+        w.setSerializeNulls(false);
+        return w;
+    }
+
+    @FunctionalInterface
+    private interface ElementWriter<T> {
+
+        void write(Writer w, T element) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ChunkConsumer {
+
+        void accept(String chunk) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface GenerationStep {
+
+        void write(OutputGeneration generation) throws IOException;
     }
 }
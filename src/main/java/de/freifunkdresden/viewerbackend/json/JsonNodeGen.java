@@ -24,189 +24,273 @@
 
 package de.freifunkdresden.viewerbackend.json;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import de.freifunkdresden.viewerbackend.Airtime;
+import de.freifunkdresden.viewerbackend.Location;
 import de.freifunkdresden.viewerbackend.Node;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.text.DateFormat;
-import java.util.Date;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 
 public class JsonNodeGen {
 
     private static final Logger LOGGER = LogManager.getLogger(Node.class);
 
-    public static JsonObject getJsonObject(Node n, DateFormat df) {
+    private JsonNodeGen() {
+    }
+
+    static String getJsonObject(NodeProjection p, DateTimeFormatter df, FragmentCache cache) {
         try {
-            JsonObject node = new JsonObject();
-            JsonObject nodeinfo = new JsonObject();
-            JsonObject network = new JsonObject();
-            JsonArray addresses = new JsonArray();
-            addresses.add(n.getIpAddress());
-            network.add("addresses", addresses);
-            nodeinfo.add("network", network);
-            nodeinfo.addProperty("hostname", n.getHostname());
-            JsonObject system = new JsonObject();
-            system.addProperty("site_code", n.getCommunity().getName());
-            system.addProperty("role", n.getRole().name().toLowerCase());
-            nodeinfo.add("system", system);
-            JsonObject hardware = new JsonObject();
-            if (n.getModel() != null && !n.getModel().isEmpty()) {
-                hardware.addProperty("model", n.getModel());
-            }
-            nodeinfo.add("hardware", hardware);
-            nodeinfo.addProperty("node_id", String.valueOf(n.getId()));
-            JsonObject software = new JsonObject();
-            JsonObject autoupdater = new JsonObject();
-            autoupdater.addProperty("enabled", n.isAutoUpdateEnabled());
-            autoupdater.addProperty("branch", "stable");
-            software.add("autoupdater", autoupdater);
-            if (n.getFirmwareVersion() != null && !n.getFirmwareVersion().isEmpty()) {
-                JsonObject firmware = new JsonObject();
-                firmware.addProperty("release", n.getFirmwareVersion());
-                firmware.addProperty("base", n.getFirmwareBase());
-                software.add("firmware", firmware);
-            }
-            nodeinfo.add("software", software);
-            JsonObject owner = new JsonObject();
-            if (n.getEMail() != null && !n.getEMail().isEmpty()) {
-                owner.addProperty("contact", n.getEMail());
-            }
-            nodeinfo.add("owner", owner);
-            if (n.isShown()) {
-                nodeinfo.add("location", n.getLocation().toJson());
-            }
-            JsonArray pages = new JsonArray();
-            pages.add(String.format("http://%s.freifunk-dresden.de", n.getId()));
-            nodeinfo.add("pages", pages);
-            JsonObject wireless = new JsonObject();
-            nodeinfo.add("wireless", wireless);
-            node.add("nodeinfo", nodeinfo);
-            JsonObject statistics = new JsonObject();
-            statistics.addProperty("clients", n.getClients());
-            if (n.isOnline()) {
-                statistics.addProperty("uptime", n.getUptime());
-                statistics.addProperty("memory_usage", n.getMemoryUsage());
-                statistics.addProperty("loadavg", n.getLoadAvg());
-                JsonArray airtime = new JsonArray();
-                JsonObject ja2 = getAirtime(n.getAirtime2g(), n.getAirtime2GOld(), 2472);
-                if (ja2 != null) {
-                    airtime.add(ja2);
-                }
-                JsonObject ja5 = getAirtime(n.getAirtime5g(), n.getAirtime5GOld(), 5220);
-                if (ja5 != null) {
-                    airtime.add(ja5);
-                }
-                statistics.add("airtime", airtime);
-                JsonObject w = new JsonObject();
-                if (!Airtime.EMPTY.equals(n.getAirtime2g())) {
-                    Number wat = getWirelessAirtime(n.getAirtime2g(), n.getAirtime2GOld());
-                    if (wat != null) {
-                        wireless.addProperty("chan2", 13);
-                        w.addProperty("airtime2", wat);
-                    }
-                }
-                if (!Airtime.EMPTY.equals(n.getAirtime5g())) {
-                    Number wat = getWirelessAirtime(n.getAirtime5g(), n.getAirtime5GOld());
-                    if (wat != null) {
-                        wireless.addProperty("chan5", 44);
-                        w.addProperty("airtime5", wat);
-                    }
-                }
-                statistics.add("wireless", w);
-            }
-            if (!n.isGateway() && n.getGateway() != null) {
-                statistics.addProperty("gateway", n.getGateway().getIpAddress());
-            }
-            node.add("statistics", statistics);
-            JsonObject flags = new JsonObject();
-            flags.addProperty("gateway", n.isGateway());
-            flags.addProperty("backbone", n.hasBackbone());
-            flags.addProperty("online", n.isOnline());
-            node.add("flags", flags);
-            node.addProperty("firstseen", df.format(new Date(n.getFirstSeen())));
-            node.addProperty("lastseen", df.format(new Date(n.getLastSeen())));
-            return node;
+            StringWriter sw = new StringWriter(1024);
+            writeJsonObject(JsonFileGen.newJsonWriter(sw), p, df, cache);
+            return sw.toString();
         } catch (Exception e) {
-            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", n.getId()), e);
+            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", p.id), e);
         }
         return null;
     }
 
-    public static JsonObject getMeshViewerObj(Node n, DateFormat df) {
+    static String getNodeStats(NodeProjection p, DateTimeFormatter df) {
         try {
-            JsonObject node = new JsonObject();
-            node.addProperty("firstseen", df.format(new Date(n.getFirstSeen())));
-            node.addProperty("lastseen", df.format(new Date(n.getLastSeen())));
-            node.addProperty("is_gateway", n.isGateway());
-            node.addProperty("is_online", n.isOnline());
-            node.addProperty("clients", n.getClients());
-            node.addProperty("clients_wifi24", n.getClients());
-            node.addProperty("clients_wifi5", 0);
-            node.addProperty("clients_other", 0);
-            if (n.isOnline()) {
-                node.addProperty("loadavg", n.getLoadAvg());
-                node.addProperty("memory_usage", n.getMemoryUsage());
-                Date date = new Date(System.currentTimeMillis() - (long) (n.getUptime() * 1000));
-                node.addProperty("uptime", df.format(date));
-                node.addProperty("nproc", n.getNproc());
-            }
-            if (!n.isGateway() && n.getGateway() != null) {
-                node.addProperty("gateway", n.getGateway().getFakeId());
-                node.addProperty("gateway_nexthop", n.getGateway().getFakeId()); //TODO: Correct value
-            }
-            node.addProperty("node_id", n.getFakeId());
-            JsonArray addresses = new JsonArray();
-            addresses.add(n.getIpAddress());
-            node.add("addresses", addresses);
-            node.addProperty("site_code", n.getCommunity().getName());
-            node.addProperty("hostname", n.getHostname());
-            if (n.isShown()) {
-                node.add("location", n.getLocation().toJson());
+            StringWriter sw = new StringWriter(512);
+            JsonWriter w = JsonFileGen.newJsonWriter(sw);
+            w.beginObject();
+            writeNodeStats(w, p, df, getAirtime2(p), getAirtime5(p));
+            w.endObject();
+            return sw.toString();
+        } catch (Exception e) {
+            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", p.id), e);
+        }
+        return null;
+    }
+
+    static String getNodeInfo(NodeProjection p, FragmentCache cache) {
+        try {
+            return getNodeInfo(p, cache, getAirtime2(p) != null, getAirtime5(p) != null);
+        } catch (Exception e) {
+            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", p.id), e);
+        }
+        return null;
+    }
+
+    static String getMeshViewerObj(NodeProjection p, DateTimeFormatter df) {
+        try {
+            StringWriter sw = new StringWriter(1024);
+            writeMeshViewerObj(JsonFileGen.newJsonWriter(sw), p, df);
+            return sw.toString();
+        } catch (Exception e) {
+            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", p.id), e);
+        }
+        return null;
+    }
+
+    private static void writeJsonObject(JsonWriter w, NodeProjection p, DateTimeFormatter df, FragmentCache cache)
+            throws IOException {
+        Float airtime2 = getAirtime2(p);
+        Float airtime5 = getAirtime5(p);
+        w.beginObject();
+        w.name("nodeinfo").jsonValue(getNodeInfo(p, cache, airtime2 != null, airtime5 != null));
+        writeNodeStats(w, p, df, airtime2, airtime5);
+        w.endObject();
+    }
+
+    private static String getNodeInfo(NodeProjection p, FragmentCache cache, boolean chan2, boolean chan5)
+            throws IOException {
+        long key = p.nodeInfoKey(chan2, chan5);
+        String nodeInfo = cache != null ? cache.get(p.id, key) : null;
+        if (nodeInfo == null) {
+            StringWriter sw = new StringWriter(512);
+            writeNodeInfo(JsonFileGen.newJsonWriter(sw), p, chan2, chan5);
+            nodeInfo = sw.toString();
+            if (cache != null) {
+                cache.put(p.id, key, nodeInfo);
             }
-            if (n.getFirmwareVersion() != null && !n.getFirmwareVersion().isEmpty()) {
-                JsonObject firmware = new JsonObject();
-                firmware.addProperty("release", n.getFirmwareVersion());
-                firmware.addProperty("base", n.getFirmwareBase());
-                node.add("firmware", firmware);
+        }
+        return nodeInfo;
+    }
+
+    private static void writeNodeStats(JsonWriter w, NodeProjection p, DateTimeFormatter df, Float airtime2,
+            Float airtime5) throws IOException {
+        w.name("statistics").beginObject();
+        w.name("clients").value(p.clients);
+        if (p.online) {
+            w.name("uptime").value(Float.valueOf(p.uptime));
+            w.name("memory_usage").value(p.memoryUsage);
+            w.name("loadavg").value(Float.valueOf(p.loadAvg));
+            w.name("airtime").beginArray();
+            writeAirtime(w, p.airtime2g, p.airtime2gOld, 2472);
+            writeAirtime(w, p.airtime5g, p.airtime5gOld, 5220);
+            w.endArray();
+            w.name("wireless").beginObject();
+            if (airtime2 != null) {
+                w.name("airtime2").value(airtime2);
             }
-            if (n.getModel() != null && !n.getModel().isEmpty()) {
-                node.addProperty("model", n.getModel());
+            if (airtime5 != null) {
+                w.name("airtime5").value(airtime5);
             }
-            node.addProperty("contact", n.getEMail());
-            JsonObject autoupdater = new JsonObject();
-            autoupdater.addProperty("enabled", n.isAutoUpdateEnabled());
-            autoupdater.addProperty("branch", "stable");
-            node.add("autoupdater", autoupdater);
-            node.addProperty("vpn", n.hasBackbone());
-            node.addProperty("mac", n.getFakeMac());
-            return node;
+            w.endObject();
+        }
+        w.name("gateway").value(p.gatewayIp);
+        w.endObject();
+        w.name("flags").beginObject();
+        w.name("gateway").value(p.gateway);
+        w.name("backbone").value(p.backbone);
+        w.name("online").value(p.online);
+        w.endObject();
+        w.name("firstseen").value(df.format(Instant.ofEpochMilli(p.firstSeen)));
+        w.name("lastseen").value(df.format(Instant.ofEpochMilli(p.lastSeen)));
+    }
+
+    private static void writeNodeInfo(JsonWriter w, NodeProjection p, boolean chan2, boolean chan5) throws IOException {
+        w.beginObject();
+        w.name("network").beginObject();
+        w.name("addresses").beginArray().value(p.ipAddress).endArray();
+        w.endObject();
+        w.name("hostname").value(p.hostname);
+        w.name("system").beginObject();
+        w.name("site_code").value(p.siteCode);
+        w.name("role").value(p.role);
+        w.endObject();
+        w.name("hardware").beginObject();
+        w.name("model").value(p.model);
+        w.endObject();
+        w.name("node_id").value(p.nodeId);
+        w.name("software").beginObject();
+        writeAutoUpdater(w, p);
+        writeFirmware(w, p);
+        w.endObject();
+        w.name("owner").beginObject();
+        if (p.contact != null && !p.contact.isEmpty()) {
+            w.name("contact").value(p.contact);
+        }
+        w.endObject();
+        writeLocation(w, p.location);
+        w.name("pages").beginArray().value("http://" + p.nodeId + ".freifunk-dresden.de").endArray();
+        w.name("wireless").beginObject();
+        if (chan2) {
+            w.name("chan2").value(13);
+        }
+        if (chan5) {
+            w.name("chan5").value(44);
+        }
+        w.endObject();
+        w.endObject();
+    }
+
+    /**
+     * Per-run statistics of the MeshViewer node, used for the stats section of
+     * nodes-delta.json.
+     */
+    static String getMeshViewerStats(NodeProjection p, DateTimeFormatter df) {
+        try {
+            StringWriter sw = new StringWriter(256);
+            JsonWriter w = JsonFileGen.newJsonWriter(sw);
+            w.beginObject();
+            w.name("node_id").value(p.fakeId);
+            w.name("lastseen").value(df.format(Instant.ofEpochMilli(p.lastSeen)));
+            writeMeshViewerStatistics(w, p, df);
+            w.endObject();
+            return sw.toString();
         } catch (Exception e) {
-            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", n.getId()), e);
+            LOGGER.log(Level.ERROR, String.format("Fehler bei Node %s", p.id), e);
         }
         return null;
     }
 
-    private static JsonObject getAirtime(Airtime at, Airtime old, int freq) {
+    private static void writeMeshViewerStatistics(JsonWriter w, NodeProjection p, DateTimeFormatter df)
+            throws IOException {
+        w.name("clients").value(p.clients);
+        w.name("clients_wifi24").value(p.clients);
+        w.name("clients_wifi5").value(0);
+        w.name("clients_other").value(0);
+        if (p.online) {
+            w.name("loadavg").value(Float.valueOf(p.loadAvg));
+            w.name("memory_usage").value(p.memoryUsage);
+            Instant boot = Instant.ofEpochMilli(System.currentTimeMillis() - (long) (p.uptime * 1000));
+            w.name("uptime").value(df.format(boot));
+        }
+    }
+
+    private static void writeMeshViewerObj(JsonWriter w, NodeProjection p, DateTimeFormatter df) throws IOException {
+        w.beginObject();
+        w.name("firstseen").value(df.format(Instant.ofEpochMilli(p.firstSeen)));
+        w.name("lastseen").value(df.format(Instant.ofEpochMilli(p.lastSeen)));
+        w.name("is_gateway").value(p.gateway);
+        w.name("is_online").value(p.online);
+        writeMeshViewerStatistics(w, p, df);
+        if (p.online) {
+            w.name("nproc").value(p.nproc);
+        }
+        w.name("gateway").value(p.gatewayFakeId);
+        w.name("gateway_nexthop").value(p.gatewayFakeId); //TODO: Correct value
+        w.name("node_id").value(p.fakeId);
+        w.name("addresses").beginArray().value(p.ipAddress).endArray();
+        w.name("site_code").value(p.siteCode);
+        w.name("hostname").value(p.hostname);
+        writeLocation(w, p.location);
+        writeFirmware(w, p);
+        w.name("model").value(p.model);
+        w.name("contact").value(p.contact);
+        writeAutoUpdater(w, p);
+        w.name("vpn").value(p.backbone);
+        w.name("mac").value(p.fakeMac);
+        w.endObject();
+    }
+
+    private static void writeAutoUpdater(JsonWriter w, NodeProjection p) throws IOException {
+        w.name("autoupdater").beginObject();
+        w.name("enabled").value(p.autoUpdate);
+        w.name("branch").value("stable");
+        w.endObject();
+    }
+
+    private static void writeFirmware(JsonWriter w, NodeProjection p) throws IOException {
+        if (p.firmwareRelease != null) {
+            w.name("firmware").beginObject();
+            w.name("release").value(p.firmwareRelease);
+            w.name("base").value(p.firmwareBase);
+            w.endObject();
+        }
+    }
+
+    private static void writeLocation(JsonWriter w, Location l) throws IOException {
+        if (l != null) {
+            w.name("location").beginObject();
+            w.name("latitude").value(l.getLatitude());
+            w.name("longitude").value(l.getLongitude());
+            w.endObject();
+        }
+    }
+
+    private static void writeAirtime(JsonWriter w, Airtime at, Airtime old, int freq) throws IOException {
         if (!Airtime.EMPTY.equals(at)) {
             float a = at.getActive() < old.getActive() ? at.getActive() : at.getActive() - old.getActive();
             float b = at.getBusy() < old.getBusy() ? at.getBusy() : at.getBusy() - old.getBusy();
             float r = at.getReceive() < old.getReceive() ? at.getReceive() : at.getReceive() - old.getReceive();
             float t = at.getTransmit() < old.getTransmit() ? at.getTransmit() : at.getTransmit() - old.getTransmit();
-            JsonObject ja = new JsonObject();
-            ja.addProperty("frequency", freq);
-            ja.addProperty("busy", b / a);
-            ja.addProperty("rx", r / a);
-            ja.addProperty("tx", t / a);
-            return ja;
+            w.beginObject();
+            w.name("frequency").value(freq);
+            w.name("busy").value(Float.valueOf(b / a));
+            w.name("rx").value(Float.valueOf(r / a));
+            w.name("tx").value(Float.valueOf(t / a));
+            w.endObject();
         }
-        return null;
     }
 
-    private static Number getWirelessAirtime(Airtime at, Airtime old) {
+    private static Float getAirtime2(NodeProjection p) {
+        return p.online ? getWirelessAirtime(p.airtime2g, p.airtime2gOld) : null;
+    }
+
+    private static Float getAirtime5(NodeProjection p) {
+        return p.online ? getWirelessAirtime(p.airtime5g, p.airtime5gOld) : null;
+    }
+
+    private static Float getWirelessAirtime(Airtime at, Airtime old) {
         if (!Airtime.EMPTY.equals(at)) {
             float b = at.getBusy() < old.getBusy() ? at.getBusy() : at.getBusy() - old.getBusy();
             float a = at.getActive() < old.getActive() ? at.getActive() : at.getActive() - old.getActive();
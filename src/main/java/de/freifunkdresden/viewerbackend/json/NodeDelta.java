@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.json;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MeshViewer nodes whose state differs from the previous generation. The
+ * per-node hashes and the sequence number are kept between runs, the same
+ * sequence is written to meshviewer.json as sync point for clients.
+ * <p>
+ * The state hash leaves out the statistics that change with every run
+ * (clients, uptime, load, memory usage and lastseen). Instead, every delta
+ * carries a compact {@code stats} section with these values for all nodes,
+ * so the delta and the sequence advance on every run and clients that only
+ * apply deltas never keep stale statistics.
+ */
+class NodeDelta {
+
+    private static final Logger LOGGER = LogManager.getLogger(NodeDelta.class);
+    private static final int FORMAT = 1;
+
+    private long sequence;
+    private Map<Integer, State> previous = new HashMap<>();
+    private final Map<Integer, State> current = new HashMap<>();
+    private final List<String> added = new ArrayList<>();
+    private final List<String> changed = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> stats = new ArrayList<>();
+
+    void load(Path file) {
+        if (Files.notExists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT) {
+                return;
+            }
+            long seq = in.readLong();
+            int count = in.readInt();
+            Map<Integer, State> states = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                long hash = in.readLong();
+                states.put(id, new State(hash, in.readUTF()));
+            }
+            sequence = seq;
+            previous = states;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Node delta state couldn't be loaded", ex);
+        }
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void save(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FORMAT);
+            out.writeLong(sequence);
+            out.writeInt(current.size());
+            for (Map.Entry<Integer, State> e : current.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeLong(e.getValue().hash);
+                out.writeUTF(e.getValue().fakeId);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Node delta state couldn't be saved", ex);
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Node delta state couldn't be saved", ex);
+        }
+    }
+
+    /**
+     * Compares the nodes with the previous generation, renders the added and
+     * changed ones and the statistics of all nodes, and advances the sequence.
+     */
+    void update(List<NodeProjection> nodes, DateTimeFormatter df) {
+        for (NodeProjection node : nodes) {
+            if (node == null) {
+                continue;
+            }
+            State state = new State(node.deltaKey(), node.fakeId);
+            State old = previous.get(node.id);
+            if (old == null || old.hash != state.hash) {
+                String fragment = JsonNodeGen.getMeshViewerObj(node, df);
+                if (fragment == null) {
+                    continue;
+                }
+                (old == null ? added : changed).add(fragment);
+            }
+            current.put(node.id, state);
+            String nodeStats = JsonNodeGen.getMeshViewerStats(node, df);
+            if (nodeStats != null) {
+                stats.add(nodeStats);
+            }
+        }
+        previous.forEach((id, state) -> {
+            if (!current.containsKey(id)) {
+                removed.add(state.fakeId);
+            }
+        });
+        sequence++;
+    }
+
+    void write(JsonWriter w, String timestamp) throws IOException {
+        w.beginObject();
+        w.name("sequence").value(sequence);
+        w.name("previous").value(sequence - 1);
+        w.name("timestamp").value(timestamp);
+        w.name("added").beginArray();
+        for (String fragment : added) {
+            w.jsonValue(fragment);
+        }
+        w.endArray();
+        w.name("changed").beginArray();
+        for (String fragment : changed) {
+            w.jsonValue(fragment);
+        }
+        w.endArray();
+        w.name("removed").beginArray();
+        for (String fakeId : removed) {
+            w.value(fakeId);
+        }
+        w.endArray();
+        w.name("stats").beginArray();
+        for (String fragment : stats) {
+            w.jsonValue(fragment);
+        }
+        w.endArray();
+        w.endObject();
+    }
+
+    private static final class State {
+
+        private final long hash;
+        private final String fakeId;
+
+        private State(long hash, String fakeId) {
+            this.hash = hash;
+            this.fakeId = fakeId;
+        }
+    }
+}
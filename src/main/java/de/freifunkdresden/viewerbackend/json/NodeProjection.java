@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.json;
+
+import de.freifunkdresden.viewerbackend.Airtime;
+import de.freifunkdresden.viewerbackend.Location;
+import de.freifunkdresden.viewerbackend.Node;
+
+/**
+ * Viewer independent view of a node. All values are read from the node once
+ * and shared by the HopGlass and MeshViewer renderers.
+ */
+final class NodeProjection {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final int id;
+    final String nodeId;
+    final String fakeId;
+    final String fakeMac;
+    final String hostname;
+    final String ipAddress;
+    final String siteCode;
+    final String role;
+    final String model;
+    final String contact;
+    final boolean autoUpdate;
+    final String firmwareRelease;
+    final String firmwareBase;
+    final Location location;
+    final boolean gateway;
+    final boolean backbone;
+    final boolean online;
+    final short clients;
+    final float uptime;
+    final double memoryUsage;
+    final float loadAvg;
+    final int nproc;
+    final Airtime airtime2g;
+    final Airtime airtime2gOld;
+    final Airtime airtime5g;
+    final Airtime airtime5gOld;
+    final String gatewayIp;
+    final String gatewayFakeId;
+    final long firstSeen;
+    final long lastSeen;
+
+    NodeProjection(Node n) {
+        id = n.getId();
+        nodeId = String.valueOf(id);
+        fakeId = n.getFakeId();
+        fakeMac = n.getFakeMac();
+        hostname = n.getHostname();
+        ipAddress = n.getIpAddress();
+        siteCode = n.getCommunity().getName();
+        role = n.getRole().name().toLowerCase();
+        model = emptyToNull(n.getModel());
+        contact = n.getEMail();
+        autoUpdate = n.isAutoUpdateEnabled();
+        firmwareRelease = emptyToNull(n.getFirmwareVersion());
+        firmwareBase = n.getFirmwareBase();
+        location = n.isShown() ? n.getLocation() : null;
+        gateway = n.isGateway();
+        backbone = n.hasBackbone();
+        online = n.isOnline();
+        clients = n.getClients();
+        if (online) {
+            uptime = n.getUptime();
+            memoryUsage = n.getMemoryUsage();
+            loadAvg = n.getLoadAvg();
+            nproc = n.getNproc();
+            airtime2g = n.getAirtime2g();
+            airtime2gOld = n.getAirtime2GOld();
+            airtime5g = n.getAirtime5g();
+            airtime5gOld = n.getAirtime5GOld();
+        } else {
+            uptime = 0;
+            memoryUsage = 0;
+            loadAvg = 0;
+            nproc = 0;
+            airtime2g = Airtime.EMPTY;
+            airtime2gOld = Airtime.EMPTY;
+            airtime5g = Airtime.EMPTY;
+            airtime5gOld = Airtime.EMPTY;
+        }
+        Node gw = gateway ? null : n.getGateway();
+        gatewayIp = gw != null ? gw.getIpAddress() : null;
+        gatewayFakeId = gw != null ? gw.getFakeId() : null;
+        firstSeen = n.getFirstSeen();
+        lastSeen = n.getLastSeen();
+    }
+
+    /**
+     * 64 bit FNV-1a hash over everything the HopGlass nodeinfo block is
+     * rendered from.
+     */
+    long nodeInfoKey(boolean chan2, boolean chan5) {
+        long h = FNV_OFFSET;
+        h = hash(h, ipAddress);
+        h = hash(h, hostname);
+        h = hash(h, siteCode);
+        h = hash(h, role);
+        h = hash(h, model);
+        h = hash(h, nodeId);
+        h = hash(h, autoUpdate ? "1" : "0");
+        h = hash(h, firmwareRelease);
+        h = hash(h, firmwareBase);
+        h = hash(h, contact);
+        h = hash(h, location != null ? location.getLatitude() + "," + location.getLongitude() : null);
+        h = hash(h, chan2 ? "1" : "0");
+        return hash(h, chan5 ? "1" : "0");
+    }
+
+    /**
+     * 64 bit FNV-1a hash over the MeshViewer values that describe the node's
+     * state. Statistics that change with every run, like lastseen, uptime,
+     * load, memory usage and clients, are left out and sent in the stats
+     * section of the delta instead.
+     */
+    long deltaKey() {
+        long h = FNV_OFFSET;
+        h = hash(h, fakeId);
+        h = hash(h, fakeMac);
+        h = hash(h, ipAddress);
+        h = hash(h, hostname);
+        h = hash(h, siteCode);
+        h = hash(h, model);
+        h = hash(h, contact);
+        h = hash(h, firmwareRelease);
+        h = hash(h, firmwareBase);
+        h = hash(h, location != null ? location.getLatitude() + "," + location.getLongitude() : null);
+        h = hash(h, gatewayFakeId);
+        h = hash(h, String.valueOf(nproc));
+        h = hash(h, String.valueOf(firstSeen));
+        h = hash(h, online ? "1" : "0");
+        h = hash(h, gateway ? "1" : "0");
+        h = hash(h, backbone ? "1" : "0");
+        return hash(h, autoUpdate ? "1" : "0");
+    }
+
+    /**
+     * Hashes the length (-1 for null) before the characters, so the field
+     * boundaries are part of the hash.
+     */
+    private static long hash(long h, String s) {
+        int length = s != null ? s.length() : -1;
+        for (int shift = 0; shift < 32; shift += 8) {
+            h = (h ^ ((length >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        for (int i = 0; i < length; i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.freifunkdresden.viewerbackend.json;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of output files that are written to a hidden staging directory next to
+ * the target directory and moved into place once all of them are complete.
+ * Every file is replaced atomically, but the files are moved one after
+ * another, so consistency across files is only guaranteed per file. Readers
+ * that need a matching set can use the manifest, which is moved last.
+ */
+class OutputGeneration {
+
+    private static final Logger LOGGER = LogManager.getLogger(OutputGeneration.class);
+
+    private final Path directory;
+    private final Path staging;
+    private final List<PendingFile> files = Collections.synchronizedList(new ArrayList<>());
+    private final List<Path> obsolete = Collections.synchronizedList(new ArrayList<>());
+
+    OutputGeneration(Path directory) {
+        this.directory = directory;
+        Path absolute = directory.toAbsolutePath();
+        this.staging = absolute.resolveSibling("." + absolute.getFileName() + ".staging");
+    }
+
+    OutputStream create(String name) throws IOException {
+        Files.createDirectories(staging);
+        PendingFile file = new PendingFile(directory.resolve(name), staging.resolve(name));
+        files.add(file);
+        return file.open();
+    }
+
+    /**
+     * Removes the file when the generation is committed.
+     */
+    void delete(String name) {
+        obsolete.add(directory.resolve(name));
+    }
+
+    boolean isEmpty() {
+        return files.isEmpty() && obsolete.isEmpty();
+    }
+
+    boolean isDeleted(String name) {
+        return obsolete.contains(directory.resolve(name));
+    }
+
+    List<PendingFile> getFiles() {
+        synchronized (files) {
+            return new ArrayList<>(files);
+        }
+    }
+
+    void commit() throws IOException {
+        for (PendingFile file : getFiles()) {
+            Files.move(file.temp, file.target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        synchronized (obsolete) {
+            for (Path p : obsolete) {
+                Files.deleteIfExists(p);
+            }
+        }
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ex) {
+            LOGGER.log(Level.DEBUG, "Directory sync not supported", ex);
+        }
+    }
+
+    void discard() {
+        getFiles().forEach(OutputGeneration::deleteTemp);
+    }
+
+    private static void deleteTemp(PendingFile file) {
+        try {
+            Files.deleteIfExists(file.temp);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARN, "Could not delete " + file.temp, ex);
+        }
+    }
+
+    static final class PendingFile {
+
+        private final Path target;
+        private final Path temp;
+        private final MessageDigest digest;
+        private long size;
+        private String sha256;
+
+        private PendingFile(Path target, Path temp) {
+            this.target = target;
+            this.temp = temp;
+            this.digest = JsonFileGen.newDigest();
+        }
+
+        String getName() {
+            return target.getFileName().toString();
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * Hash of the written content, only valid after the stream is closed.
+         */
+        String getSha256() {
+            if (sha256 == null) {
+                sha256 = JsonFileGen.toHex(digest.digest());
+            }
+            return sha256;
+        }
+
+        private OutputStream open() throws IOException {
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    digest.update(b, off, len);
+                    size += len;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try (channel) {
+                        channel.force(true);
+                    }
+                }
+            };
+        }
+    }
+}
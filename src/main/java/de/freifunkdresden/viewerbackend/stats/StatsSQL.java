@@ -47,6 +47,7 @@ public class StatsSQL {
 
     private static final List<Point> general = new ArrayList<>();
     private static final List<Point> vpnUsage = new ArrayList<>();
+    private static final List<Point> jsonFiles = new ArrayList<>();
     private static final Set<Node> nodes = Collections.synchronizedSet(new LinkedHashSet<>());
     private static final Map<String, Integer> versions = new LinkedHashMap<>();
     private static final Map<String, Integer> communities = new LinkedHashMap<>();
@@ -65,6 +66,15 @@ public class StatsSQL {
         }
     }
 
+    public static void addJsonFile(String file, boolean written) {
+        synchronized (jsonFiles) {
+            jsonFiles.add(Point.measurement("json_files")
+                    .tag("file", file)
+                    .addField("written", written ? 1 : 0)
+                    .build());
+        }
+    }
+
     public static void addVersion(String version) {
         if (!version.isEmpty()) {
             synchronized (versions) {
@@ -110,6 +120,7 @@ public class StatsSQL {
     public static void processStats() {
         DataGen.getInflux().write(general);
         DataGen.getInflux().write(vpnUsage);
+        DataGen.getInflux().write(jsonFiles);
         List<Point> nodeClients = new ArrayList<>();
         List<Point> nodeLoad = new ArrayList<>();
         List<Point> nodeMemory = new ArrayList<>();
@@ -25,17 +25,20 @@
 package de.freifunkdresden.viewerbackend.thread;
 
 import de.freifunkdresden.viewerbackend.Node;
+import de.freifunkdresden.viewerbackend.datasource.NodeBatchWriter;
 
 public class NodeDatabaseThread implements Runnable {
 
     private final Node node;
+    private final NodeBatchWriter writer;
 
-    public NodeDatabaseThread(Node node) {
+    public NodeDatabaseThread(Node node, NodeBatchWriter writer) {
         this.node = node;
+        this.writer = writer;
     }
 
     @Override
     public void run() {
-        node.updateDatabase();
+        node.updateDatabase(writer);
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Niklas Merkelt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package de.freifunkdresden.viewerbackend.thread;
+
+import com.google.gson.JsonSyntaxException;
+import de.freifunkdresden.viewerbackend.DataGen;
+import de.freifunkdresden.viewerbackend.Node;
+import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfo;
+import de.freifunkdresden.viewerbackend.datasource.ResponseTimes;
+import de.freifunkdresden.viewerbackend.exception.EmptyJsonException;
+import de.freifunkdresden.viewerbackend.exception.HTTPStatusCodeException;
+import de.freifunkdresden.viewerbackend.exception.MalformedSysinfoException;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.StringReader;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+public class NodeSysinfoCrawler {
+
+    private static final int RETRY_COUNT = 3;
+    private static final Logger LOGGER = LogManager.getLogger(NodeSysinfoCrawler.class);
+
+    private final HttpClient client;
+    private final Semaphore inFlight;
+
+    public NodeSysinfoCrawler(int maxInFlight) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(DataGen.getConfig().getIntValue("crawl_connect_timeout", 10000)))
+                .build();
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    public void crawl(Collection<Node> nodes, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<CompletableFuture<Void>> requests = new ArrayList<>(nodes.size());
+        try {
+            for (Node n : nodes) {
+                if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new TimeoutException();
+                }
+                requests.add(checkNode(n, 1).whenComplete((v, ex) -> inFlight.release()));
+            }
+            LOGGER.log(Level.INFO, "Waiting requests to finish...");
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]))
+                    .get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            LOGGER.log(Level.WARN, "Sysinfo crawl timed out, {} of {} nodes not finished",
+                    requests.stream().filter(r -> !r.isDone()).count() + nodes.size() - requests.size(), nodes.size());
+            requests.forEach(r -> r.cancel(true));
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.ERROR, "Sysinfo crawl failed", ex);
+        }
+    }
+
+    private CompletableFuture<Void> checkNode(Node n, int attempt) {
+        ResponseTimes times = DataGen.getResponseTimes();
+        int readTimeout = times.getReadTimeout(n.getId());
+        int timeout = times.getConnectTimeout(n.getId()) + readTimeout;
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + n.getIpAddress() + "/sysinfo-json.cgi"))
+                .timeout(Duration.ofMillis(readTimeout))
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        //the client's connect timeout is only the ceiling, the per-node one is applied to the whole request
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .orTimeout(timeout, TimeUnit.MILLISECONDS)
+                .thenApply(response -> {
+                    times.record(n.getId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return getDataParser(response);
+                })
+                .handle((dp, ex) -> {
+                    if (ex != null && isTimeout(unwrap(ex))) {
+                        times.record(n.getId(), timeout);
+                    }
+                    if (ex == null) {
+                        n.setDpSysinfo(dp);
+                        DataGen.getProbeSchedule().success(n);
+                    } else if (handleError(n, attempt, unwrap(ex))) {
+                        return checkNode(n, attempt + 1);
+                    } else {
+                        DataGen.getProbeSchedule().failure(n);
+                    }
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private static DataParserSysinfo getDataParser(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new HTTPStatusCodeException(response.statusCode());
+        }
+        try {
+            return NodeSysinfoThread.parseSysinfo(new StringReader(response.body()));
+        } catch (EmptyJsonException | MalformedSysinfoException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    private static boolean handleError(Node n, int attempt, Throwable ex) {
+        boolean lastAttempt = attempt >= RETRY_COUNT;
+        if (ex instanceof NoRouteToHostException || ex.getCause() instanceof NoRouteToHostException) {
+            return !lastAttempt;
+        }
+        if (ex instanceof JsonSyntaxException || ex instanceof EmptyJsonException || ex instanceof MalformedSysinfoException ||
+                ex instanceof ConnectException || isTimeout(ex) || ex instanceof HTTPStatusCodeException) {
+            if (lastAttempt) {
+                LOGGER.log(Level.WARN, "Node {}: {}", n.getId(), ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage());
+            }
+        } else {
+            LOGGER.log(Level.ERROR, String.format("Node %s: ", n.getId()), ex);
+        }
+        return !lastAttempt;
+    }
+
+    private static boolean isTimeout(Throwable ex) {
+        return ex instanceof HttpTimeoutException || ex instanceof TimeoutException;
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+}
@@ -27,6 +27,7 @@ package de.freifunkdresden.viewerbackend.thread;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import de.freifunkdresden.viewerbackend.DataGen;
 import de.freifunkdresden.viewerbackend.Node;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfo;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfoV10;
@@ -34,6 +35,8 @@ import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfoV11;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfoV13;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfoV14;
 import de.freifunkdresden.viewerbackend.dataparser.DataParserSysinfoV15;
+import de.freifunkdresden.viewerbackend.dataparser.HtmlStrippingReader;
+import de.freifunkdresden.viewerbackend.datasource.ResponseTimes;
 import de.freifunkdresden.viewerbackend.exception.EmptyJsonException;
 import de.freifunkdresden.viewerbackend.exception.HTTPStatusCodeException;
 import de.freifunkdresden.viewerbackend.exception.MalformedSysinfoException;
@@ -41,16 +44,17 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class NodeSysinfoThread implements Runnable {
 
@@ -58,16 +62,41 @@ public class NodeSysinfoThread implements Runnable {
     private static final Logger LOGGER = LogManager.getLogger(NodeSysinfoThread.class);
 
     private final Node node;
+    private final Semaphore permits;
 
     public NodeSysinfoThread(Node node) {
+        this(node, null);
+    }
+
+    public NodeSysinfoThread(Node node, Semaphore permits) {
         this.node = node;
+        this.permits = permits;
     }
 
     @Override
     public void run() {
+        if (permits == null) {
+            collect();
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            collect();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void collect() {
         for (int i = 0; i < RETRY_COUNT; i++) {
             try {
                 checkNode(node);
+                DataGen.getProbeSchedule().success(node);
                 return;
             } catch (NoRouteToHostException ex) {
             } catch (JsonSyntaxException | EmptyJsonException | MalformedSysinfoException |
@@ -79,30 +108,41 @@ public class NodeSysinfoThread implements Runnable {
                 LOGGER.log(Level.ERROR, String.format("Node %s: ", node.getId()), ex);
             }
         }
+        DataGen.getProbeSchedule().failure(node);
     }
 
     private static void checkNode(Node n) throws IOException, EmptyJsonException, MalformedSysinfoException {
+        ResponseTimes times = DataGen.getResponseTimes();
+        int connectTimeout = times.getConnectTimeout(n.getId());
+        int readTimeout = times.getReadTimeout(n.getId());
+        long start = System.nanoTime();
         HttpURLConnection con = (HttpURLConnection) new URL("http://" + n.getIpAddress() + "/sysinfo-json.cgi").openConnection();
-        con.setConnectTimeout(10000);
-        con.setReadTimeout(15000);
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        try {
+            checkNode(n, con);
+            times.record(n.getId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (SocketTimeoutException ex) {
+            times.record(n.getId(), connectTimeout + readTimeout);
+            throw ex;
+        }
+    }
+
+    private static void checkNode(Node n, HttpURLConnection con) throws IOException, EmptyJsonException, MalformedSysinfoException {
         if (con.getResponseCode() == 200) {
-            String json;
-            try (InputStreamReader reader = new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8)) {
-                try (BufferedReader bufferedReader = new BufferedReader(reader)) {
-                    json = bufferedReader.lines().collect(Collectors.joining());
-                }
-            }
-            //Fix HTML injected in JSON
-            int begin = json.indexOf("<!DOCTYPE html>");
-            if (begin != -1) {
-                json = json.replaceAll("(<!DOCTYPE html>[\\S\\s]*<\\/html>)", "{}");
+            try (Reader reader = new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8)) {
+                n.setDpSysinfo(parseSysinfo(reader));
             }
-            n.setDpSysinfo(getDataParser(JsonParser.parseString(json).getAsJsonObject()));
         } else {
             throw new HTTPStatusCodeException(con.getResponseCode());
         }
     }
 
+    public static DataParserSysinfo parseSysinfo(Reader reader) throws EmptyJsonException, MalformedSysinfoException {
+        //Fix HTML injected in JSON
+        return getDataParser(JsonParser.parseReader(new HtmlStrippingReader(reader)).getAsJsonObject());
+    }
+
     private static DataParserSysinfo getDataParser(JsonObject sysinfo) throws EmptyJsonException, MalformedSysinfoException {
         if (sysinfo.size() == 0) {
             throw new EmptyJsonException();
@@ -110,20 +150,25 @@ public class NodeSysinfoThread implements Runnable {
         if (!sysinfo.has("version") || !sysinfo.has("data")) {
             throw new MalformedSysinfoException();
         }
-        int version = sysinfo.get("version").getAsInt();
-        JsonObject data = sysinfo.get("data").getAsJsonObject();
-        if (version >= 15) {
-            return new DataParserSysinfoV15(data);
-        } else if (version >= 14) {
-            return new DataParserSysinfoV14(data);
-        } else if (version >= 13) {
-            return new DataParserSysinfoV13(data);
-        } else if (version >= 11) {
-            return new DataParserSysinfoV11(data);
-        } else if (version >= 10) {
-            return new DataParserSysinfoV10(data);
-        } else {
-            return new DataParserSysinfo(data);
+        try {
+            int version = sysinfo.get("version").getAsInt();
+            JsonObject data = sysinfo.get("data").getAsJsonObject();
+            if (version >= 15) {
+                return new DataParserSysinfoV15(data);
+            } else if (version >= 14) {
+                return new DataParserSysinfoV14(data);
+            } else if (version >= 13) {
+                return new DataParserSysinfoV13(data);
+            } else if (version >= 11) {
+                return new DataParserSysinfoV11(data);
+            } else if (version >= 10) {
+                return new DataParserSysinfoV10(data);
+            } else {
+                return new DataParserSysinfo(data);
+            }
+        } catch (IllegalStateException | UnsupportedOperationException | NullPointerException |
+                NumberFormatException | IndexOutOfBoundsException ex) {
+            throw new MalformedSysinfoException(ex);
         }
     }
 }